@@ -0,0 +1,62 @@
+import java.util.*;
+
+/**
+ * Measures what a single program gains from keeping the disk queue full.
+ * It reads the same random blocks twice: once with rawread( ), one block
+ * at a time, and once by issuing every read with rawreadAsync( ) and
+ * reaping them all with ioWait( ), which lets the disk serve them in its
+ * elevator order. It reports the time taken and the tracks the disk's
+ * seeks crossed (1 ms of seek time each) for both.
+ *
+ * To run: java -DthreadOS.diskOrder=fcfs|sstf|scan|clook AsyncIoBench
+ *         [blocks]
+ */
+public class AsyncIoBench extends Thread {
+
+    private static int count;
+
+    public AsyncIoBench( ) {
+    }
+
+    // Report the time since start and the disk's tracks since before
+    private void report( String name, long start, long before[] ) {
+	long elapsed = System.nanoTime( ) - start;
+	long after[] = new long[Disk.STATS];
+	SysLib.diskStats( after );
+	SysLib.cout( String.format( "%-6s %5d reads in %6d ms, %6d ms seeking\n",
+				    name, count, elapsed / 1000000,
+				    after[Disk.STAT_TRACKS] - before[Disk.STAT_TRACKS] ) );
+    }
+
+    public void run( ) {
+	Random rand = new Random( 1 );
+	int size = Kernel.diskBlocks( );
+	int blocks[] = new int[count];
+	for ( int i = 0; i < count; i++ )
+	    blocks[i] = rand.nextInt( size );
+	byte data[][] = new byte[count][Disk.blockSize];
+	long before[] = new long[Disk.STATS];
+
+	SysLib.diskStats( before );
+	long start = System.nanoTime( );
+	for ( int i = 0; i < count; i++ )
+	    SysLib.rawread( blocks[i], data[i] );
+	report( "sync", start, before );
+
+	SysLib.diskStats( before );
+	start = System.nanoTime( );
+	int handles[] = new int[count];
+	for ( int i = 0; i < count; i++ )
+	    handles[i] = SysLib.rawreadAsync( blocks[i], data[i] );
+	SysLib.ioWait( handles );
+	report( "async", start, before );
+	System.exit( 0 );
+    }
+
+    public static void main( String args[] ) throws Exception {
+	count = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : 100;
+	SysLib.boot( );
+	SysLib.exec( new String[] { "AsyncIoBench" } );
+	Thread.currentThread( ).join( ); // AsyncIoBench.run( ) exits
+    }
+}
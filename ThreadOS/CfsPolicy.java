@@ -0,0 +1,80 @@
+import java.util.*;
+
+// Completely fair scheduling: runnable TCBs are kept in a balanced tree
+// ordered by virtual runtime, the CPU time they have received scaled by
+// DEFAULT_WEIGHT / weight. The leftmost TCB, the one that has had the
+// least, runs next, so picking and requeueing cost O(log n). Every
+// runnable TCB should get a turn within targetLatency ms: a slice is that
+// latency shared out by weight, but never shorter than minGranularity.
+public class CfsPolicy implements SchedulingPolicy {
+    private TreeSet<TCB> queue = new TreeSet<TCB>( new Comparator<TCB>( ) {
+	    public int compare( TCB a, TCB b ) {
+		if ( a.getVruntime( ) != b.getVruntime( ) )
+		    return ( a.getVruntime( ) < b.getVruntime( ) ) ? -1 : 1;
+		return a.getTid( ) - b.getTid( );
+	    }
+	} );
+    private int targetLatency;
+    private int minGranularity;
+    private long minVruntime = 0;  // never decreases
+    private long queuedWeight = 0; // total weight of the queued TCBs
+
+    public CfsPolicy( int targetLatency, int minGranularity ) {
+	this.targetLatency = targetLatency;
+	this.minGranularity = minGranularity;
+    }
+
+    // A new or returning TCB starts no further back than minVruntime,
+    // as in StridePolicy
+    public void enqueue( TCB tcb ) {
+	if ( tcb.getVruntime( ) < minVruntime )
+	    tcb.setVruntime( minVruntime );
+	queue.add( tcb );
+	queuedWeight += tcb.getWeight( );
+    }
+
+    public TCB pickNext( ) {
+	TCB tcb = queue.pollFirst( );
+	if ( tcb != null ) {
+	    queuedWeight -= tcb.getWeight( );
+	    minVruntime = Math.max( minVruntime, tcb.getVruntime( ) );
+	}
+	return tcb;
+    }
+
+    // tcb's share of targetLatency among everything runnable here
+    public int quantum( TCB tcb ) {
+	long weight = tcb.getWeight( );
+	long slice = targetLatency * weight / ( queuedWeight + weight );
+	return ( int )Math.max( slice, minGranularity );
+    }
+
+    // Virtual runtime is kept in microseconds for precision
+    public void account( TCB tcb, int used, boolean expired ) {
+	tcb.setVruntime( tcb.getVruntime( ) +
+			 used * 1000L * TCB.DEFAULT_WEIGHT / tcb.getWeight( ) );
+    }
+
+    public boolean shouldPreempt( TCB running ) {
+	return false;
+    }
+
+    // Give away the TCB that has had the most CPU time
+    public TCB steal( ) {
+	TCB tcb = queue.pollLast( );
+	if ( tcb != null )
+	    queuedWeight -= tcb.getWeight( );
+	return tcb;
+    }
+
+    public boolean remove( TCB tcb ) {
+	if ( !queue.remove( tcb ) )
+	    return false;
+	queuedWeight -= tcb.getWeight( );
+	return true;
+    }
+
+    public int size( ) {
+	return queue.size( );
+    }
+}
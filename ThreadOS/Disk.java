@@ -1,4 +1,8 @@
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.locks.*;
 
 public class Disk extends Thread {
     public static final int blockSize = 512;
@@ -7,159 +11,394 @@ public class Disk extends Thread {
     private final int delayPerTrack = 1;
     private int diskSize;
 
-    private byte data[];
+    // The DISK file, mapped in segments of at most SEGMENT blocks since a
+    // single mapping cannot exceed 2 GB. A segment is mapped when one of
+    // its blocks is first accessed, and the OS pages blocks in as they are
+    // touched, so mounting takes the same time whatever the image size.
+    // Writes only mark their block dirty; a sync forces the dirty blocks
+    // out to the file.
+    private static final int SEGMENT = 1 << 20;
+    private FileChannel channel;
+    private MappedByteBuffer segments[];
+    private BitSet dirty = new BitSet( );
 
-    private int command;
-    private final int IDLE = 0;
     private final int READ = 1;
     private final int WRITE = 2;
     private final int SYNC = 3;
-    private boolean readyBuffer;
 
-    private byte[] buffer;
+    // An outstanding command. The disk completes it and wakes up the one
+    // thread waiting on it, if any; the requester does not have to be the
+    // one woken by the disk interrupt. A read or write moves one or more blocks, in
+    // ascending order; each run of contiguous blocks costs one seek.
+    public static class Request {
+	final int command;
+	final int blockId;      // the first block, -1 for a sync
+	final int blockIds[];   // the blocks, in ascending order
+	final byte buffers[][]; // buffers[i] holds block blockIds[i]
+	final long submitted = System.nanoTime( );
+	private volatile boolean done = false;
+	private volatile Thread waiter = null; // the thread in await( )
+
+	Request( int command, int blockIds[], byte buffers[][] ) {
+	    this.command = command;
+	    this.blockId = ( blockIds == null ) ? -1 : blockIds[0];
+	    this.blockIds = blockIds;
+	    this.buffers = buffers;
+	}
+
+	public boolean isDone( ) {
+	    return done;
+	}
+
+	// Park until the disk has served this request. An interrupt does
+	// not end the wait but is left pending for the caller.
+	public void await( ) {
+	    boolean interrupted = false;
+	    waiter = Thread.currentThread( );
+	    while ( !done ) {
+		LockSupport.park( this );
+		interrupted |= Thread.interrupted( );
+	    }
+	    waiter = null;
+	    if ( interrupted )
+		Thread.currentThread( ).interrupt( );
+	}
+
+	void finish( ) {
+	    done = true;
+	    Thread thread = waiter;
+	    if ( thread != null )
+		LockSupport.unpark( thread );
+	}
+    }
+
+    // Outstanding requests in arrival order, and the order to serve them in
+    private ArrayList<Request> queue = new ArrayList<Request>( );
+    public static final int FCFS  = 0; // arrival order
+    public static final int SSTF  = 1; // shortest seek from the head first
+    public static final int SCAN  = 2; // sweep up and down (turning at the
+				       // last request, i.e. LOOK)
+    public static final int CLOOK = 3; // sweep up, then jump back to the
+				       // lowest request
+    private int order = CLOOK;
+    private boolean ascending = true;  // SCAN's direction
+
     private int currentBlockId;
     private int targetBlockId;
 
+    // Utilization accounting, in ns since the disk was created
+    private long startTime = System.nanoTime( );
+    private long busyTime = 0;
+    private long requests = 0;
+    private long tracks = 0;    // tracks crossed by seeks
+    private long queueTime = 0; // ns requests waited before being served
+    private long flushed = 0;   // blocks forced out to DISK by syncs
+    private long blocks = 0;    // blocks read or written
+    public static final int STAT_BUSY     = 0;
+    public static final int STAT_IDLE     = 1;
+    public static final int STAT_REQUESTS = 2;
+    public static final int STAT_TRACKS   = 3;
+    public static final int STAT_QUEUED   = 4;
+    public static final int STAT_FLUSHED  = 5;
+    public static final int STAT_BLOCKS   = 6;
+    public static final int STATS         = 7;
+
     public Disk( int totalBlocks ) {
+	this( totalBlocks, "DISK", false );
+    }
+
+    // Mount the image in the file path. An eager mount maps and reads in
+    // the whole image now rather than as its blocks are accessed.
+    public Disk( int totalBlocks, String path, boolean eager ) {
 	diskSize = ( totalBlocks > 0 ) ? totalBlocks : 1;
-	data = new byte[ diskSize * blockSize ];
-	command = IDLE;
-	readyBuffer = false;
-	buffer = null;
 	currentBlockId = 0;
 	targetBlockId = 0;
+	File file = new File( path );
+	if ( !file.exists( ) )
+	    SysLib.cerr( "threadOS: " + path + " created\n" );
+	segments = new MappedByteBuffer[( diskSize + SEGMENT - 1 ) / SEGMENT];
 	try {
-	    FileInputStream ifstream = new FileInputStream( "DISK" );
-	    int readableSize = ( ifstream.available( ) < data.length ) ?
-		ifstream.available( ) : data.length; 
-	    ifstream.read( data, 0, readableSize );
-	    ifstream.close( );
-	} catch ( FileNotFoundException e ) {
-	    SysLib.cerr( "threadOS: DISK created\n" );
+	    RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+	    if ( raf.length( ) < ( long )diskSize * blockSize )
+		raf.setLength( ( long )diskSize * blockSize );
+	    channel = raf.getChannel( );
+	    if ( eager )
+		for ( int i = 0; i < segments.length; i++ )
+		    segment( i * SEGMENT ).load( );
 	} catch ( IOException e ) {
 	    SysLib.cerr( e.toString( ) + "\n" );
 	}
     }
 
-    public synchronized boolean read( int blockId, byte buffer[] ) {
+    public int getSize( ) {
+	return diskSize;
+    }
 
-	if ( blockId < 0 || blockId > diskSize ) {
-	    SysLib.cerr( "threadOS: a wrong blockId for read\n" );
-	    return false;
-	}
+    // Select the order outstanding requests are served in: "fcfs",
+    // "sstf", "scan" or "clook" (the default)
+    public synchronized void setOrder( String name ) {
+	if ( name.equals( "fcfs" ) )
+	    order = FCFS;
+	else if ( name.equals( "sstf" ) )
+	    order = SSTF;
+	else if ( name.equals( "scan" ) )
+	    order = SCAN;
+	else
+	    order = CLOOK;
+    }
 
-	if ( command == IDLE && readyBuffer == false ) {
-	    this.buffer = buffer;
-	    targetBlockId = blockId;
-	    command = READ;
-	    notify( );
-	    return true;
-	} else
-	    return false;
+    // Queue a read of block blockId into buffer; null if there is no such
+    // block
+    public Request read( int blockId, byte buffer[] ) {
+	return readv( new int[] { blockId }, new byte[][] { buffer } );
     }
 
-    public synchronized boolean write( int blockId, byte buffer[] ) {
+    // Queue a write of buffer to block blockId; null if there is no such
+    // block
+    public Request write( int blockId, byte buffer[] ) {
+	return writev( new int[] { blockId }, new byte[][] { buffer } );
+    }
 
-	if ( blockId < 0 || blockId > diskSize ) {
-	    SysLib.cerr( "threadOS: a wrong blockId for write\n" );
-	    return false;
-	}
+    // Queue one read of every block blockIds[i] into buffers[i]; null if
+    // any of them does not exist. Blocks may come in any order, and each
+    // run of contiguous ones is read with a single seek.
+    public Request readv( int blockIds[], byte buffers[][] ) {
+	return vector( READ, blockIds, buffers );
+    }
 
-	if ( command == IDLE && readyBuffer == false ) {
-	    this.buffer = buffer;
-	    targetBlockId = blockId;
-	    command = WRITE;
-	    notify( );
-	    return true;
-	} else
-	    return false;
+    // The same for a write of every buffers[i] to block blockIds[i]
+    public Request writev( int blockIds[], byte buffers[][] ) {
+	return vector( WRITE, blockIds, buffers );
     }
 
-    public synchronized boolean sync( ) {
-	
-	if ( command == IDLE && readyBuffer == false ) {
-	    command = SYNC;
-	    notify( );
-	    // System.out.println( "DISK sync notified the disk" );
-	    return true;
-	} else
-	    return false;
+    // Check a vectored command and queue it with its blocks sorted
+    private Request vector( int command, int blockIds[], byte buffers[][] ) {
+	if ( blockIds == null || buffers == null || blockIds.length == 0
+	     || blockIds.length != buffers.length ) {
+	    SysLib.cerr( "threadOS: a wrong block list for " +
+			 ( command == READ ? "read\n" : "write\n" ) );
+	    return null;
+	}
+	Integer order[] = new Integer[blockIds.length];
+	for ( int i = 0; i < blockIds.length; i++ ) {
+	    if ( blockIds[i] < 0 || blockIds[i] >= diskSize ) {
+		SysLib.cerr( "threadOS: a wrong blockId for " +
+			     ( command == READ ? "read\n" : "write\n" ) );
+		return null;
+	    }
+	    if ( buffers[i] == null || buffers[i].length < blockSize ) {
+		SysLib.cerr( "threadOS: a wrong buffer for " +
+			     ( command == READ ? "read\n" : "write\n" ) );
+		return null;
+	    }
+	    order[i] = i;
+	}
+	// a stable sort, so a block listed twice is written last by the
+	// later buffer
+	Arrays.sort( order, new Comparator<Integer>( ) {
+		public int compare( Integer a, Integer b ) {
+		    return blockIds[a] - blockIds[b];
+		}
+	    } );
+	int sortedIds[] = new int[order.length];
+	byte sortedBuffers[][] = new byte[order.length][];
+	for ( int i = 0; i < order.length; i++ ) {
+	    sortedIds[i] = blockIds[order[i]];
+	    sortedBuffers[i] = buffers[order[i]];
+	}
+	return submit( new Request( command, sortedIds, sortedBuffers ) );
     }
 
-    public synchronized boolean testAndResetReady( ) {
-	if ( command == IDLE && readyBuffer == true ) {
-	    readyBuffer = false;
-	    return true;
-	} else
-	    return false;
+    // Queue a write of the whole disk to the DISK file. Requests queued
+    // before it are served first, whatever the order.
+    public Request sync( ) {
+	return submit( new Request( SYNC, null, null ) );
     }
 
-    public synchronized boolean testReady( ) {
-	if ( command == IDLE && readyBuffer == true ) {
-	    return true;
-	} else
-	    return false;
+    private synchronized Request submit( Request request ) {
+	queue.add( request );
+	notify( );
+	return request;
     }
 
-    private synchronized void waitCommand( ) {
-	while ( command == IDLE ) {
+    // Wait for a request and take the next one to serve off the queue
+    private synchronized Request waitCommand( ) {
+	while ( queue.isEmpty( ) ) {
 	    try {
 		wait( );
 	    } catch ( InterruptedException e ) {
 		SysLib.cerr( e.toString( ) + "\n" );
 	    }
-	    readyBuffer = false;
 	}
+	// a sync is a barrier: choose only among the requests before it
+	int limit = 0;
+	while ( limit < queue.size( ) && queue.get( limit ).command != SYNC )
+	    limit++;
+	int next = ( limit == 0 ) ? 0 : pick( limit );
+	Request request = queue.remove( next );
+	queueTime += System.nanoTime( ) - request.submitted;
+	return request;
+    }
+
+    // The index of the request to serve next among queue[0..limit)
+    private int pick( int limit ) {
+	if ( order == FCFS )
+	    return 0;
+	int best = -1;
+	if ( order == SSTF ) {
+	    for ( int i = 0; i < limit; i++ )
+		if ( best == -1 || distance( i ) < distance( best ) )
+		    best = i;
+	    return best;
+	}
+	if ( order == SCAN ) {
+	    best = nearest( limit, ascending );
+	    if ( best == -1 ) {
+		ascending = !ascending;
+		best = nearest( limit, ascending );
+	    }
+	    return best;
+	}
+	// C-LOOK: the nearest block at or above the head, else the lowest
+	best = nearest( limit, true );
+	if ( best == -1 )
+	    for ( int i = 0; i < limit; i++ )
+		if ( best == -1
+		     || queue.get( i ).blockId < queue.get( best ).blockId )
+		    best = i;
+	return best;
+    }
+
+    // The nearest request at or above (below) the head, or -1
+    private int nearest( int limit, boolean up ) {
+	int best = -1;
+	for ( int i = 0; i < limit; i++ ) {
+	    int blockId = queue.get( i ).blockId;
+	    if ( up ? blockId < currentBlockId : blockId > currentBlockId )
+		continue;
+	    if ( best == -1 || distance( i ) < distance( best ) )
+		best = i;
+	}
+	return best;
     }
 
-    private void seek( ) {
-	int seekTime = transferTime + delayPerTrack 
-	    * Math.abs( targetBlockId/trackSize - currentBlockId/trackSize );
+    private int distance( int i ) {
+	return Math.abs( queue.get( i ).blockId - currentBlockId );
+    }
+
+    // Move the head to targetBlockId and transfer its block. Every block
+    // costs the transfer time, but only a new run costs a seek across the
+    // tracks; within a run the head streams on from block to block.
+    private void seek( boolean newRun ) {
+	int crossed = newRun ?
+	    Math.abs( targetBlockId/trackSize - currentBlockId/trackSize ) : 0;
+	int seekTime = transferTime + delayPerTrack * crossed;
 	try {
 	    Thread.sleep( seekTime );
 	} catch( InterruptedException e ) {
 	    SysLib.cerr( e.toString( ) + "\n" );
 	}
 	currentBlockId = targetBlockId;
+	synchronized ( this ) {
+	    tracks += crossed;
+	}
     }
 
-    private synchronized void finishCommand( ) {
-	command = IDLE;
-	readyBuffer = true;
+    // Copy the busy and idle time, the number of requests served, the
+    // tracks crossed, the time requests spent queued, the blocks synced
+    // and the blocks read or written so far into stats, indexed by the
+    // STAT_ constants
+    public synchronized boolean getStats( long stats[] ) {
+	if ( stats == null || stats.length < STATS )
+	    return false;
+	stats[STAT_BUSY] = busyTime;
+	stats[STAT_IDLE] = System.nanoTime( ) - startTime - busyTime;
+	stats[STAT_REQUESTS] = requests;
+	stats[STAT_TRACKS] = tracks;
+	stats[STAT_QUEUED] = queueTime;
+	stats[STAT_FLUSHED] = flushed;
+	stats[STAT_BLOCKS] = blocks;
+	return true;
+    }
+
+    private synchronized void account( long start, Request request ) {
+	busyTime += System.nanoTime( ) - start;
+	requests++;
+	if ( request.blockIds != null )
+	    blocks += request.blockIds.length;
+    }
+
+    private void finishCommand( Request request ) {
+	request.finish( );
 	SysLib.disk( ); // a disk interrupt
     }
 
+    // The segment holding blockId, mapped on first use
+    private MappedByteBuffer segment( int blockId ) throws IOException {
+	int i = blockId / SEGMENT;
+	if ( segments[i] == null ) {
+	    int blocks = Math.min( SEGMENT, diskSize - i * SEGMENT );
+	    segments[i] = channel.map( FileChannel.MapMode.READ_WRITE,
+				       ( long )i * SEGMENT * blockSize,
+				       ( long )blocks * blockSize );
+	}
+	return segments[i];
+    }
+
+    // The byte offset of blockId within its segment
+    private int offset( int blockId ) {
+	return ( blockId % SEGMENT ) * blockSize;
+    }
+
+    // Force each run of dirty blocks out to DISK, a segment at a time
+    private void flush( ) {
+	int blocks = 0;
+	for ( int first = dirty.nextSetBit( 0 ); first >= 0;
+	      first = dirty.nextSetBit( first ) ) {
+	    int end = dirty.nextClearBit( first );
+	    end = Math.min( end, ( first / SEGMENT + 1 ) * SEGMENT );
+	    segments[first / SEGMENT].force( offset( first ),
+					     ( end - first ) * blockSize );
+	    blocks += end - first;
+	    first = end;
+	}
+	dirty.clear( );
+	synchronized ( this ) {
+	    flushed += blocks;
+	}
+    }
+
     public void run ( ) {
 	
 	while ( true ) {
-	    waitCommand( );
-	    seek( );
-	    // System.out.println( "Disk: command = " + command );
-	    switch( command ) {
-	    case READ:
-		System.arraycopy( data, targetBlockId * blockSize, 
-				  buffer, 0, 
-				  blockSize );
-		break;
-	    case WRITE:
-		System.arraycopy( buffer, 0, 
-				  data, targetBlockId * blockSize, 
-				  blockSize );
-		break;
-	    case SYNC:
-		try {
-		    FileOutputStream ofstream = new FileOutputStream( "DISK" );
-		    ofstream.write( data );
-		    ofstream.close( );
-		} catch ( FileNotFoundException e ) {
-		    SysLib.cerr( e.toString( ) );
-		} catch ( IOException e ) {
-		    SysLib.cerr( e.toString( ) );
+	    Request request = waitCommand( );
+	    long start = System.nanoTime( );
+	    // System.out.println( "Disk: command = " + request.command );
+	    try {
+		if ( request.command == SYNC ) {
+		    seek( true );
+		    flush( );
+		    // SysLib.cerr( "threadOS: DISK synchronized\n" );
+		} else {
+		    for ( int i = 0; i < request.blockIds.length; i++ ) {
+			targetBlockId = request.blockIds[i];
+			seek( i == 0 || targetBlockId != request.blockIds[i - 1] + 1 );
+			MappedByteBuffer segment = segment( targetBlockId );
+			if ( request.command == READ )
+			    segment.get( offset( targetBlockId ),
+					 request.buffers[i], 0, blockSize );
+			else {
+			    segment.put( offset( targetBlockId ),
+					 request.buffers[i], 0, blockSize );
+			    dirty.set( targetBlockId );
+			}
+		    }
 		}
-		// SysLib.cerr( "threadOS: DISK synchronized\n" );
-		break;
+	    } catch ( IOException e ) {
+		SysLib.cerr( e.toString( ) + "\n" );
 	    }
-	    finishCommand( );
+	    account( start, request );
+	    finishCommand( request );
 	}
     }
 }
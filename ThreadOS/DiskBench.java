@@ -0,0 +1,96 @@
+import java.util.*;
+
+/**
+ * Measures how the disk's request order copes with several programs
+ * doing I/O at once. For each of Test4's access patterns (random,
+ * localized, mixed and adversary) it boots clients that each read a list
+ * of blocks with rawread( ) and then write the same contents back with
+ * rawwrite( ), all at once, and reports the disk's throughput, the tracks
+ * its seeks crossed (1 ms of seek time each) and how long requests
+ * waited in its queue. The DISK image is left as it was.
+ *
+ * To run: java -DthreadOS.diskOrder=fcfs|sstf|scan|clook DiskBench
+ *         [clients] [accesses]
+ */
+public class DiskBench extends Thread {
+
+    private static final String PATTERNS[] = { "random", "localized",
+					       "mixed", "adversary" };
+    private static int clients;
+    private static int accesses;
+
+    // One client: args = { pattern, client number, clients, accesses }
+    public static class Client extends Thread {
+	private int blocks[];
+
+	public Client( String args[] ) {
+	    int size = Kernel.diskBlocks( );
+	    int id = Integer.parseInt( args[1] );
+	    int region = size / Integer.parseInt( args[2] ) * id;
+	    Random rand = new Random( id );
+	    blocks = new int[Integer.parseInt( args[3] )];
+	    for ( int i = 0; i < blocks.length; i++ ) {
+		int local = region + i % 10;
+		int random = rand.nextInt( size );
+		if ( args[0].equals( "random" ) )
+		    blocks[i] = random;
+		else if ( args[0].equals( "localized" ) )
+		    blocks[i] = local;
+		else if ( args[0].equals( "mixed" ) )
+		    blocks[i] = ( rand.nextInt( 10 ) == 0 ) ? random : local;
+		else // bounce between the two ends of the disk
+		    blocks[i] = ( i % 2 == 0 ) ? random % 100
+			: size - 1 - random % 100;
+	    }
+	}
+
+	public void run( ) {
+	    byte data[][] = new byte[blocks.length][Disk.blockSize];
+	    for ( int i = 0; i < blocks.length; i++ )
+		SysLib.rawread( blocks[i], data[i] );
+	    for ( int i = 0; i < blocks.length; i++ )
+		SysLib.rawwrite( blocks[i], data[i] );
+	    SysLib.exit( );
+	}
+    }
+
+    public DiskBench( ) {
+    }
+
+    public void run( ) {
+	System.out.println( "disk order " +
+			    System.getProperty( "threadOS.diskOrder", "clook" ) +
+			    ", " + clients + " clients x " + accesses +
+			    " reads and " + accesses + " writes" );
+	for ( int p = 0; p < PATTERNS.length; p++ ) {
+	    String batch[][] = new String[clients][];
+	    for ( int i = 0; i < clients; i++ )
+		batch[i] = new String[] { "DiskBench$Client", PATTERNS[p], "" + i,
+					  "" + clients, "" + accesses };
+	    long before[] = new long[Disk.STATS];
+	    long after[] = new long[Disk.STATS];
+	    SysLib.diskStats( before );
+	    long start = System.nanoTime( );
+	    SysLib.execBatch( batch );
+	    SysLib.joinAll( );
+	    long elapsed = System.nanoTime( ) - start;
+	    SysLib.diskStats( after );
+	    long requests = after[Disk.STAT_REQUESTS] - before[Disk.STAT_REQUESTS];
+	    long tracks = after[Disk.STAT_TRACKS] - before[Disk.STAT_TRACKS];
+	    long queued = after[Disk.STAT_QUEUED] - before[Disk.STAT_QUEUED];
+	    System.out.println( String.format( "%-10s %6d requests in %6d ms: %6.1f requests/s, %6d ms seeking, %6.1f ms queued per request",
+					       PATTERNS[p], requests, elapsed / 1000000,
+					       requests * 1e9 / elapsed, tracks,
+					       queued / 1e6 / Math.max( requests, 1 ) ) );
+	}
+	System.exit( 0 );
+    }
+
+    public static void main( String args[] ) throws Exception {
+	clients = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : 8;
+	accesses = ( args.length > 1 ) ? Integer.parseInt( args[1] ) : 50;
+	SysLib.boot( );
+	SysLib.exec( new String[] { "DiskBench" } );
+	Thread.currentThread( ).join( ); // DiskBench.run( ) exits
+    }
+}
@@ -0,0 +1,111 @@
+import java.util.*;
+
+// Earliest deadline first, for the real-time class. Among the real-time
+// TCBs that still have budget left in their current period, the one with
+// the earliest absolute deadline runs next. A TCB that has used up its
+// budget is throttled until its next period begins, and a period whose
+// budget was not served before its deadline counts as a miss.
+// A single instance is shared by all CPUs (global EDF), and any ready
+// real-time TCB preempts a time-sharing one.
+public class EdfPolicy implements SchedulingPolicy {
+    private TreeSet<TCB> ready = new TreeSet<TCB>( new Comparator<TCB>( ) {
+	    public int compare( TCB a, TCB b ) {
+		long x = a.getRealTime( ).absDeadline;
+		long y = b.getRealTime( ).absDeadline;
+		if ( x != y )
+		    return ( x < y ) ? -1 : 1;
+		return a.getTid( ) - b.getTid( );
+	    }
+	} );
+    private TreeSet<TCB> throttled = new TreeSet<TCB>( new Comparator<TCB>( ) {
+	    public int compare( TCB a, TCB b ) {
+		long x = a.getRealTime( ).release;
+		long y = b.getRealTime( ).release;
+		if ( x != y )
+		    return ( x < y ) ? -1 : 1;
+		return a.getTid( ) - b.getTid( );
+	    }
+	} );
+
+    // Release throttled TCBs whose next period has begun, and close the
+    // periods of ready TCBs whose deadline has already passed
+    private void update( long now ) {
+	while ( !throttled.isEmpty( ) &&
+		throttled.first( ).getRealTime( ).release <= now )
+	    ready.add( throttled.pollFirst( ) );
+	while ( !ready.isEmpty( ) &&
+		ready.first( ).getRealTime( ).absDeadline <= now ) {
+	    TCB tcb = ready.pollFirst( );
+	    tcb.getRealTime( ).nextPeriod( true );
+	    enqueue( tcb );
+	}
+    }
+
+    public void enqueue( TCB tcb ) {
+	if ( tcb.getRealTime( ).release > System.currentTimeMillis( ) )
+	    throttled.add( tcb );
+	else
+	    ready.add( tcb );
+    }
+
+    public TCB pickNext( ) {
+	update( System.currentTimeMillis( ) );
+	return ready.pollFirst( );
+    }
+
+    public int quantum( TCB tcb ) {
+	return Math.max( tcb.getRealTime( ).remaining, 1 );
+    }
+
+    public void account( TCB tcb, int used, boolean expired ) {
+	RealTimeParams rt = tcb.getRealTime( );
+	rt.remaining -= used;
+	if ( rt.remaining <= 0 )
+	    rt.nextPeriod( System.currentTimeMillis( ) > rt.absDeadline );
+    }
+
+    // Any ready real-time TCB preempts a time-sharing one; a running
+    // real-time TCB yields only to an earlier deadline
+    public boolean shouldPreempt( TCB running ) {
+	update( System.currentTimeMillis( ) );
+	if ( ready.isEmpty( ) )
+	    return false;
+	if ( running.getRealTime( ) == null )
+	    return true;
+	return ready.first( ).getRealTime( ).absDeadline <
+	    running.getRealTime( ).absDeadline;
+    }
+
+    // The real-time queue is global, so there is nothing to steal
+    public TCB steal( ) {
+	return null;
+    }
+
+    public boolean remove( TCB tcb ) {
+	return ready.remove( tcb ) | throttled.remove( tcb );
+    }
+
+    public int size( ) {
+	return ready.size( );
+    }
+
+    // tcb wakes up from a sleep or a block at time now. Periods that ended
+    // meanwhile were not missed, since it asked for no CPU in them: it
+    // starts over in the period that contains now.
+    public void resumed( TCB tcb, long now ) {
+	RealTimeParams rt = tcb.getRealTime( );
+	if ( rt.absDeadline > now )
+	    return;
+	// a stale queue entry must leave the sets before its keys change
+	boolean queued = ready.remove( tcb ) | throttled.remove( tcb );
+	while ( rt.absDeadline <= now )
+	    rt.nextPeriod( false );
+	if ( queued )
+	    enqueue( tcb );
+    }
+
+    // When the next throttled TCB becomes ready, or -1 if none is waiting
+    public long nextRelease( ) {
+	return throttled.isEmpty( ) ? -1 : throttled.first( ).getRealTime( ).release;
+    }
+}
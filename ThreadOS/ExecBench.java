@@ -0,0 +1,113 @@
+import java.lang.reflect.*;
+
+/**
+ * Measures the cost of turning an exec request into a program object,
+ * and the throughput of exec( ) itself, for HelloWorld-sized programs.
+ * The first part compares the reflective lookup sysExec used to do on
+ * every spawn (Class.forName, getConstructor, newInstance) with the
+ * kernel's cached constructor handles. The second boots ThreadOS and
+ * times rounds of a program that exits at once, spawned one exec( ) at
+ * a time and joined one join( ) at a time, then spawned with execBatch( )
+ * and joined with joinAll( ), finishing each round before the next.
+ *
+ * To run: java ExecBench [programs]
+ */
+public class ExecBench extends Thread {
+
+    // A program that does nothing but exit
+    public static class Nop extends Thread {
+	public Nop( ) {
+	}
+
+	public Nop( String args[] ) {
+	}
+
+	public void run( ) {
+	    SysLib.exit( );
+	}
+    }
+
+    private static final int ROUND = 1000;
+    private static int programs;
+
+    public ExecBench( ) {
+    }
+
+    // What sysExec used to do on every exec
+    private static Object reflective( String args[] ) throws Exception {
+	Class<?> thrClass = Class.forName( args[0] );
+	if ( args.length == 1 )
+	    return thrClass.getDeclaredConstructor( ).newInstance( );
+	String thrArgs[] = new String[args.length - 1];
+	for ( int i = 1; i < args.length; i++ )
+	    thrArgs[i - 1] = args[i];
+	Constructor<?> thrConst = thrClass.getConstructor( String[].class );
+	return thrConst.newInstance( new Object[] { thrArgs } );
+    }
+
+    private static void instantiation( String args[], int n ) throws Exception {
+	for ( int warm = 0; warm < 3; warm++ ) {
+	    long start = System.nanoTime( );
+	    for ( int i = 0; i < n; i++ )
+		reflective( args );
+	    long lookup = System.nanoTime( ) - start;
+	    start = System.nanoTime( );
+	    for ( int i = 0; i < n; i++ )
+		Kernel.instantiate( args );
+	    long cached = System.nanoTime( ) - start;
+	    if ( warm == 2 )
+		System.out.println( String.format( "%-24s reflective %6.2f us, cached %6.2f us per program",
+						   String.join( " ", args ),
+						   lookup / 1000.0 / n, cached / 1000.0 / n ) );
+	}
+    }
+
+    // The ThreadOS side: spawn programs in rounds and report the rates
+    public void run( ) {
+	String args[] = { "ExecBench$Nop", "x" };
+	long spawn = 0;
+	long start = System.nanoTime( );
+	for ( int done = 0; done < programs; done += ROUND ) {
+	    int round = Math.min( ROUND, programs - done );
+	    long spawnStart = System.nanoTime( );
+	    for ( int i = 0; i < round; i++ )
+		SysLib.exec( args );
+	    spawn += System.nanoTime( ) - spawnStart;
+	    for ( int i = 0; i < round; i++ )
+		SysLib.join( );
+	}
+	report( "exec+join", spawn, System.nanoTime( ) - start );
+
+	spawn = 0;
+	start = System.nanoTime( );
+	for ( int done = 0; done < programs; done += ROUND ) {
+	    String batch[][] = new String[Math.min( ROUND, programs - done )][];
+	    for ( int i = 0; i < batch.length; i++ )
+		batch[i] = args;
+	    long spawnStart = System.nanoTime( );
+	    SysLib.execBatch( batch );
+	    spawn += System.nanoTime( ) - spawnStart;
+	    SysLib.joinAll( );
+	}
+	report( "execBatch+joinAll", spawn, System.nanoTime( ) - start );
+	System.exit( 0 );
+    }
+
+    // spawn is the time spent in the spawning syscalls, elapsed the total
+    private static void report( String how, long spawn, long elapsed ) {
+	System.out.println( String.format( "%-18s %d programs in %d ms: %.1f us per program, %.1f us of it spawning",
+					   how + ":", programs, elapsed / 1000000,
+					   elapsed / 1000.0 / programs,
+					   spawn / 1000.0 / programs ) );
+    }
+
+    public static void main( String args[] ) throws Exception {
+	programs = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : 20000;
+	instantiation( new String[] { "HelloWorld" }, 200000 );
+	instantiation( new String[] { "PingPong", "abc", "100" }, 200000 );
+
+	SysLib.boot( );
+	SysLib.exec( new String[] { "ExecBench" } );
+	Thread.currentThread( ).join( ); // ExecBench.run( ) exits
+    }
+}
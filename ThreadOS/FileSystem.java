@@ -1,3 +1,5 @@
+import java.util.ArrayList;
+
 public class FileSystem {
 
     private Superblock superblock;
@@ -133,15 +135,37 @@ public class FileSystem {
             bytesRemaining = fileSize;
         }
 
-        while (entry.seekPtr < getFileSize(entry) && (bytesRemaining > 0)) {
-            short bID = entry.inode.findTargetBlock(entry.seekPtr);
+        // find every block the read covers first, so that they can all be
+        // fetched in one vectored disk command
+        ArrayList<Short> blocks = new ArrayList<Short>();
+        int seekPtr = entry.seekPtr;
+        int remaining = bytesRemaining;
+        while (seekPtr < fileSize && remaining > 0) {
+            short bID = entry.inode.findTargetBlock(seekPtr);
 
             if (bID < 0 || bID >= FileSystemHelper.directSize) {
                 break;
             }
 
-            byte[] data = new byte[Disk.blockSize];
-            SysLib.rawread(bID, data);
+            blocks.add(bID);
+            if (remaining <= Disk.blockSize) {
+                break;
+            }
+            remaining = remaining - Disk.blockSize;
+            seekPtr = seekPtr + Disk.blockSize;
+        }
+
+        int blockIds[] = new int[blocks.size()];
+        byte blockData[][] = new byte[blocks.size()][Disk.blockSize];
+        for (int i = 0; i < blockIds.length; i++) {
+            blockIds[i] = blocks.get(i);
+        }
+        if (blockIds.length > 0) {
+            SysLib.rawreadv(blockIds, blockData);
+        }
+
+        for (int i = 0; i < blockIds.length; i++) {
+            byte[] data = blockData[i];
 
             // if there are more bytes remaining than our block size then we want to read in
             // an entire block size
@@ -187,6 +211,10 @@ public class FileSystem {
         int writtenBytes = 0;
         byte data[] = new byte[Disk.blockSize];
 
+        // the blocks to write back, written together once all are filled in
+        ArrayList<Integer> writeIds = new ArrayList<Integer>();
+        ArrayList<byte[]> writeData = new ArrayList<byte[]>();
+
         // while we still have data to write
         while(bytesInBuffer > 0) {
             short blockNumber = entry.inode.findTargetBlock(entry.seekPtr);
@@ -225,7 +253,8 @@ public class FileSystem {
             // go ahead and write the rest of the data that is in the buffer to the block
             if(bytesInBlock > bytesInBuffer) {
                 System.arraycopy(buffer, writtenBytes, data, (entry.seekPtr % Disk.blockSize), bytesInBuffer);
-                SysLib.rawwrite(blockNumber, data);
+                writeIds.add((int) blockNumber);
+                writeData.add(data.clone());
                 writtenBytes = writtenBytes + bytesInBuffer;
 
                 // because we should have written all of it now
@@ -237,7 +266,8 @@ public class FileSystem {
             // we have a whole disk block to go write, so go ahead and do that
             } else {
                 System.arraycopy(buffer, writtenBytes, data, (entry.seekPtr % Disk.blockSize), bytesInBlock);
-                SysLib.rawwrite(blockNumber, data);
+                writeIds.add((int) blockNumber);
+                writeData.add(data.clone());
 
                 // wrote a whole block
                 writtenBytes = writtenBytes + bytesInBlock;
@@ -250,6 +280,15 @@ public class FileSystem {
             }
         }
 
+        // write every block in one vectored disk command
+        if (writeIds.size() > 0) {
+            int blockIds[] = new int[writeIds.size()];
+            for (int i = 0; i < blockIds.length; i++) {
+                blockIds[i] = writeIds.get(i);
+            }
+            SysLib.rawwritev(blockIds, writeData.toArray(new byte[0][]));
+        }
+
         switch(entry.mode) {
             case Mode.READ_WRITE:
                 int diffInSize = getFileSize(entry) - writtenBytes;
@@ -24,7 +24,7 @@ public class FileTable {
      * Constructor.
      */
     public FileTable( Directory directory ) {
-        table = new Vector();
+        table = new Vector<FileTableEntry>();
         this.directory = directory;
     }
 
@@ -36,7 +36,48 @@ public class FileTable {
      * @param mode the file can be accessed in
      * @return the new FileTableEntry for the file, null if error or no space left in table
      */
-    public synchronized FileTableEntry falloc(String filename, String mode) {
+    public FileTableEntry falloc(String filename, String mode) {
+
+        // whether we have already waited for a busy inode; the caller is
+        // BLOCKED while it waits, but must not wait for the CPU again in
+        // Kernel.unblock() while holding this table's monitor. The inode
+        // I/O in tryAlloc() does not wait for the CPU either, being a
+        // syscall made inside this one.
+        boolean waited = false;
+
+        while (true) {
+            synchronized (this) {
+                FileTableEntry entry = tryAlloc(filename, mode, waited);
+                if (entry != BUSY) {
+                    return entry;
+                }
+                Kernel.block();
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // do nothing
+                }
+            }
+            // back on the run queue outside the monitor, then recheck
+            Kernel.unblock();
+            waited = true;
+        }
+    }
+
+    /* returned by tryAlloc() when the inode is busy and the caller should wait */
+    private static final FileTableEntry BUSY =
+        new FileTableEntry(new Inode(), (short) -1, Mode.READ_ONLY);
+
+    /**
+     * One attempt of falloc(), with the monitor held.
+     *
+     * @param filename for the new file
+     * @param mode the file can be accessed in
+     * @param waited whether the caller has already waited for the inode
+     * @return the new FileTableEntry for the file, BUSY if the inode is in
+     * use and the caller has not waited for it yet, or null on error
+     */
+    private FileTableEntry tryAlloc(String filename, String mode, boolean waited) {
 
         Inode iNode = null;
 
@@ -67,10 +108,8 @@ public class FileTable {
                 if (mode.equals(Mode.READ_ONLY)) {
 
                     if (iNode.flag == FileSystemHelper.FLAG_WRITE) {
-                        try {
-                            wait();
-                        } catch (InterruptedException e) {
-                            // do nothing
+                        if (!waited) {
+                            return BUSY;
                         }
                         break;
                     } else if (iNode.flag == FileSystemHelper.FLAG_DELETE) {
@@ -87,10 +126,8 @@ public class FileTable {
 
                         //if the iNode is busy, wait
                     else if (iNode.flag == FileSystemHelper.FLAG_READ || iNode.flag == FileSystemHelper.FLAG_WRITE) {
-                        try {
-                            wait();
-                        } catch (InterruptedException e) {
-                            // do nothing
+                        if (!waited) {
+                            return BUSY;
                         }
                         break;
                     } else if (iNode.flag == FileSystemHelper.FLAG_DELETE) {
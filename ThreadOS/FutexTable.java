@@ -0,0 +1,60 @@
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+// Futex-style wait queues for user programs. A program waits on one of
+// its own AtomicIntegers only while the word still holds the value it
+// expects, and another program wakes up waiters on the same word after
+// changing it. Programs build mutexes, semaphores and the like with
+// compare-and-set on the word, and call the kernel only to wait or wake.
+// Queues are keyed by the identity of the word and exist only while
+// somebody waits on it.
+public class FutexTable {
+    private IdentityHashMap<AtomicInteger, ArrayDeque<Waiter>> queues =
+	new IdentityHashMap<AtomicInteger, ArrayDeque<Waiter>>( );
+
+    // One waiting thread, parked until it is woken
+    private static class Waiter {
+	private final Thread thread = Thread.currentThread( );
+	private volatile boolean woken = false;
+    }
+
+    // Queue the calling thread on word if word still holds expected.
+    // Returns the ticket to pass to await( ), or null if the value has
+    // already changed.
+    public synchronized Object enqueue( AtomicInteger word, int expected ) {
+	if ( word == null || word.get( ) != expected )
+	    return null;
+	ArrayDeque<Waiter> queue = queues.get( word );
+	if ( queue == null ) {
+	    queue = new ArrayDeque<Waiter>( );
+	    queues.put( word, queue );
+	}
+	Waiter waiter = new Waiter( );
+	queue.addLast( waiter );
+	return waiter;
+    }
+
+    // Park the calling thread until wake( ) has picked its ticket
+    public void await( Object ticket ) {
+	Waiter waiter = ( Waiter )ticket;
+	while ( !waiter.woken )
+	    LockSupport.park( this );
+    }
+
+    // Wake up to n threads waiting on word, oldest first, and return how
+    // many were woken up
+    public synchronized int wake( AtomicInteger word, int n ) {
+	ArrayDeque<Waiter> queue = queues.get( word );
+	int woken = 0;
+	while ( queue != null && woken < n && !queue.isEmpty( ) ) {
+	    Waiter waiter = queue.pollFirst( );
+	    waiter.woken = true;
+	    LockSupport.unpark( waiter.thread );
+	    woken++;
+	}
+	if ( queue != null && queue.isEmpty( ) )
+	    queues.remove( word );
+	return woken;
+    }
+}
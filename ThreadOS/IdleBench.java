@@ -0,0 +1,33 @@
+import java.lang.management.*;
+
+/**
+ * Measures the host CPU time an idle ThreadOS burns. Boots the kernel
+ * without loading any program, then samples the process CPU time over a
+ * quiet period. A scheduler that blocks while its run queues are empty
+ * should show close to zero.
+ *
+ * To run: java IdleBench [seconds]
+ */
+public class IdleBench {
+
+    public static void main( String args[] ) throws InterruptedException {
+	int seconds = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : 5;
+
+	SysLib.boot( );
+	Thread.sleep( 500 ); // let the boot-time disk traffic settle
+
+	com.sun.management.OperatingSystemMXBean os =
+	    ( com.sun.management.OperatingSystemMXBean )
+	    ManagementFactory.getOperatingSystemMXBean( );
+	long cpuStart = os.getProcessCpuTime( );
+	long wallStart = System.nanoTime( );
+	Thread.sleep( seconds * 1000L );
+	long cpu = os.getProcessCpuTime( ) - cpuStart;
+	long wall = System.nanoTime( ) - wallStart;
+
+	SysLib.cout( String.format( "idle for %d s: %d ms CPU (%.1f%% of one core)\n",
+				    seconds, cpu / 1000000,
+				    100.0 * cpu / wall ) );
+	System.exit( 0 );
+    }
+}
@@ -1,6 +1,9 @@
 import java.util.*;
 import java.lang.reflect.*;
+import java.lang.invoke.*;
 import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 public class Kernel
 {
@@ -11,7 +14,7 @@ public class Kernel
 
     // System calls
     public final static int BOOT    =  0; // SysLib.boot( )
-    public final static int EXEC    =  1; // SysLib.exec(String args[])
+    public final static int EXEC    =  1; // SysLib.exec(String args[], int weight)
     public final static int WAIT    =  2; // SysLib.join( )
     public final static int EXIT    =  3; // SysLib.exit( )
     public final static int SLEEP   =  4; // SysLib.sleep(int milliseconds)
@@ -36,11 +39,35 @@ public class Kernel
     public final static int FORMAT  = 18; // SysLib.format( int files )
     public final static int DELETE  = 19; // SysLib.delete( String fileName )
 
+    // Scheduling extensions
+    public final static int EXECRT  = 20; // SysLib.exec( String args[], int budget,
+    //              int period, int deadline )
+    public final static int STATS   = 21; // SysLib.stats( int tid, long stats[] )
+    public final static int DSTATS  = 22; // SysLib.diskStats( long stats[] )
+    public final static int YIELD   = 23; // SysLib.yield( )
+    public final static int FWAIT   = 24; // SysLib.futexWait( AtomicInteger word,
+    //              int expected )
+    public final static int FWAKE   = 25; // SysLib.futexWake( AtomicInteger word, int n )
+    public final static int RELOAD  = 26; // SysLib.reload( String className )
+    public final static int EXECB   = 27; // SysLib.execBatch( String programs[][] )
+    public final static int JOINALL = 28; // SysLib.joinAll( )
+    public final static int WAITPID = 29; // SysLib.waitpid( int tid )
+    public final static int AREAD   = 30; // SysLib.rawreadAsync(int blk, byte b[])
+    public final static int AWRITE  = 31; // SysLib.rawwriteAsync(int blk, byte b[])
+    public final static int IOWAIT  = 32; // SysLib.ioWait( int handles[] )
+    public final static int IOPOLL  = 33; // SysLib.ioPoll( int handle )
+    public final static int RAWREADV= 34; // SysLib.rawreadv(int blks[], byte b[][])
+    public final static int RAWWRITEV=35; // SysLib.rawwritev(int blks[], byte b[][])
+
     // Predefined file descriptors
     public final static int STDIN  = 0;
     public final static int STDOUT = 1;
     public final static int STDERR = 2;
 
+    // The size of the DISK, and of the file system on it, unless set with
+    // -DthreadOS.diskBlocks and -DthreadOS.fsBlocks
+    public final static int DEFAULT_DISK_BLOCKS = 1000;
+
     // Return values
     public final static int OK = 0;
     public final static int ERROR = -1;
@@ -63,10 +90,15 @@ public class Kernel
 
     // Synchronized Queues
     private static SyncQueue waitQueue;  // for threads to wait for their child
-    private static SyncQueue ioQueue;    // I/O queue
+    private static FutexTable futexes;   // for user programs' futex words
 
-    private final static int COND_DISK_REQ = 1; // wait condition
-    private final static int COND_DISK_FIN = 2; // wait condition
+    // User threads: platform threads, or virtual threads when booted with
+    // java -DthreadOS.virtualThreads=true Boot on a JVM that has them.
+    // Every kernel wait parks (LockSupport or a Condition) rather than
+    // waiting on a monitor, so that a waiting virtual thread releases its
+    // carrier thread.
+    private static MethodHandle ofVirtual = null;  // Thread.ofVirtual( )
+    private static MethodHandle unstarted = null;  // Builder.unstarted( r )
 
     // Standard input
     private static BufferedReader input
@@ -74,297 +106,700 @@ public class Kernel
 
     // The heart of Kernel
     public static int interrupt( int irq, int cmd, int param, Object args ) {
-        TCB myTcb;
         switch( irq ) {
             case INTERRUPT_SOFTWARE: // System calls
-                switch( cmd ) {
-                    case BOOT:
-                        // instantiate and start a scheduler
-                        scheduler = new Scheduler( );
-                        scheduler.start( );
-
-                        // instantiate and start a disk
-                        disk = new Disk( 1000 );
-                        disk.start( );
-
-                        // instantiate a cache memory
-                        cache = new Cache( disk.blockSize, 10 );
+                TCB caller = ( scheduler != null ) ? scheduler.getMyTcb( ) : null;
+                if ( caller == null )
+                    return syscall( cmd, param, args );
+                // a syscall is a preemption point: only the TCB that the
+                // scheduler has dispatched may proceed, and any other
+                // parks until its turn. Threads that are not ThreadOS
+                // processes (Boot, Disk) pass through. A syscall the kernel
+                // makes inside another, as the file system does for its
+                // disk I/O, is no preemption point: the caller may hold a
+                // kernel monitor such as FileTable's, and must not wait for
+                // a CPU with it.
+                if ( caller.enterKernel( ) == 1 && cmd != EXIT )
+                    caller.waitForCpu( );
+                try {
+                    return syscall( cmd, param, args );
+                } finally {
+                    caller.leaveKernel( );
+                }
+            case INTERRUPT_DISK: // Disk interrupts
+                // the disk has already woken up the requester of each
+                // request it completes
+                return OK;
+            case INTERRUPT_IO:   // other I/O interrupts (not implemented)
+                return OK;
+        }
+        return OK;
+    }
 
-                        // instantiate synchronized queues
-                        ioQueue = new SyncQueue( );
-                        waitQueue = new SyncQueue( scheduler.getMaxThreads( ) );
+    // Carry out system call cmd for the calling thread
+    private static int syscall( int cmd, int param, Object args ) {
+        TCB myTcb;
+        switch( cmd ) {
+            case BOOT:
+                // java -DthreadOS.diskBlocks=n Boot for an n-block
+                // DISK. The file system keeps block numbers in
+                // shorts, so it covers only the first fsBlocks
+                // blocks (-DthreadOS.fsBlocks, 1000 by default),
+                // and formatting never depends on the disk size.
+                int diskBlocks = Integer.getInteger( "threadOS.diskBlocks",
+                        DEFAULT_DISK_BLOCKS );
+                int fsBlocks = Integer.getInteger( "threadOS.fsBlocks",
+                        Math.min( diskBlocks, DEFAULT_DISK_BLOCKS ) );
+                if ( diskBlocks <= 0 || fsBlocks <= 0 || fsBlocks > diskBlocks
+                     || fsBlocks > Short.MAX_VALUE ) {
+                    System.err.println( "threadOS: a file system of " + fsBlocks +
+                            " blocks does not fit a disk of " + diskBlocks +
+                            " blocks (at most " + Short.MAX_VALUE + ")" );
+                    return ERROR;
+                }
 
-                        fileSystem = new FileSystem(1000);
-                        return OK;
-                    case EXEC:
-                        return sysExec( ( String[] )args );
-                    case WAIT:
-                        if ( ( myTcb = scheduler.getMyTcb( ) ) != null ) {
-                            int myTid = myTcb.getTid( ); // get my thread ID
-                            return waitQueue.enqueueAndSleep( myTid ); //wait on my tid
-                            // woken up by my child thread
-                        }
-                        return ERROR;
-                    case EXIT:
-                        if ( ( myTcb = scheduler.getMyTcb( ) ) != null ) {
-                            int myPid = myTcb.getPid( ); // get my parent ID
-                            int myTid = myTcb.getTid( ); // get my ID
-                            if ( myPid != -1 ) {
-                                // wake up a thread waiting on my parent ID
-                                waitQueue.dequeueAndWakeup( myPid, myTid );
-                                // I'm terminated!
-                                scheduler.deleteThread( );
-                                return OK;
-                            }
-                        }
-                        return ERROR;
-                    case SLEEP:   // sleep a given period of milliseconds
-                        scheduler.sleepThread( param ); // param = milliseconds
-                        return OK;
-                    case RAWREAD: // read a block of data from disk
-                        while ( disk.read( param, ( byte[] )args ) == false )
-                            ioQueue.enqueueAndSleep( COND_DISK_REQ );
-                        while ( disk.testAndResetReady( ) == false )
-                            ioQueue.enqueueAndSleep( COND_DISK_FIN );
-                        // wake up the thread waiting for a request acceptance
-                        ioQueue.dequeueAndWakeup( COND_DISK_REQ );
-                        return OK;
-                    case RAWWRITE: // write a block of data to disk
-                        while ( disk.write( param, ( byte[] )args ) == false )
-                            ioQueue.enqueueAndSleep( COND_DISK_REQ );
-                        while ( disk.testAndResetReady( ) == false )
-                            ioQueue.enqueueAndSleep( COND_DISK_FIN );
-                        // wake up the thread waiting for a request acceptance
-                        ioQueue.dequeueAndWakeup( COND_DISK_REQ );
-                        return OK;
-                    case SYNC:     // synchronize disk data to a real file
-                        while ( disk.sync( ) == false )
-                            ioQueue.enqueueAndSleep( COND_DISK_REQ );
-                        while ( disk.testAndResetReady( ) == false )
-                            ioQueue.enqueueAndSleep( COND_DISK_FIN );
-                        // wake up the thread waiting for a request acceptance
-                        ioQueue.dequeueAndWakeup( COND_DISK_REQ );
+                // instantiate and start a scheduler, e.g. with
+                // java -DthreadOS.maxThreads=1000000 -DthreadOS.cpus=4 Boot
+                int maxThreads = Integer.getInteger( "threadOS.maxThreads",
+                        Scheduler.DEFAULT_MAX_THREADS );
+                int cpus = Integer.getInteger( "threadOS.cpus", 1 );
+                scheduler = new Scheduler( Scheduler.DEFAULT_TIME_SLICE,
+                        maxThreads, cpus );
+                scheduler.setPolicy( System.getProperty( "threadOS.policy",
+                        Scheduler.DEFAULT_POLICY ) );
+                scheduler.setAging(
+                        Integer.getInteger( "threadOS.agingThreshold",
+                                Scheduler.DEFAULT_AGING_THRESHOLD ),
+                        Integer.getInteger( "threadOS.boostInterval",
+                                Scheduler.DEFAULT_BOOST_INTERVAL ) );
+                scheduler.setCfs(
+                        Integer.getInteger( "threadOS.cfs.targetLatency",
+                                Scheduler.DEFAULT_TARGET_LATENCY ),
+                        Integer.getInteger( "threadOS.cfs.minGranularity",
+                                Scheduler.DEFAULT_MIN_GRANULARITY ) );
+                scheduler.setReportStats( Boolean.getBoolean( "threadOS.reportStats" ) );
+                useVirtualThreads( Boolean.getBoolean( "threadOS.virtualThreads" ) );
+                scheduler.start( );
+
+                // instantiate and start a disk;
+                // -DthreadOS.diskMount=eager reads it all in at boot
+                disk = new Disk( diskBlocks, "DISK",
+                        System.getProperty( "threadOS.diskMount", "lazy" ).equals( "eager" ) );
+                disk.start( );
+
+                // instantiate a cache memory
+                cache = new Cache( Disk.blockSize, 10 );
+
+                // instantiate synchronized queues
+                disk.setOrder( System.getProperty( "threadOS.diskOrder", "clook" ) );
+                futexes = new FutexTable( );
+                waitQueue = new SyncQueue( scheduler.getMaxThreads( ) );
+
+                fileSystem = new FileSystem( fsBlocks );
+                return OK;
+            case EXEC:    // param = share weight, 0 for the default
+                return sysExec( ( String[] )args, param );
+            case EXECRT:  // args = { String[] args, int[] { budget, period, deadline } }
+                Object execArgs[] = ( Object[] )args;
+                return sysExecRealTime( ( String[] )execArgs[0], ( int[] )execArgs[1] );
+            case STATS:   // param = tid, -1 for the caller; args = long[TCB.STATS]
+                return scheduler.getStats( param, ( long[] )args ) ? OK : ERROR;
+            case DSTATS:  // args = long[Disk.STATS]
+                return disk.getStats( ( long[] )args ) ? OK : ERROR;
+            case YIELD:
+                scheduler.yieldThread( );
+                return OK;
+            case FWAIT:   // param = expected value, args = the word
+                return futexWait( ( AtomicInteger )args, param );
+            case FWAKE:   // param = max threads to wake up, args = the word
+                return futexes.wake( ( AtomicInteger )args, param );
+            case RELOAD:  // args = the class name of a program
+                return reloadProgram( ( String )args );
+            case EXECB:   // args = { String[][] programs, int[] tids }
+                Object batch[] = ( Object[] )args;
+                return sysExecBatch( ( String[][] )batch[0], ( int[] )batch[1] );
+            case WAIT:
+                if ( ( myTcb = scheduler.getMyTcb( ) ) != null ) {
+                    int myTid = myTcb.getTid( ); // get my thread ID
+                    int childTid = sleepOn( waitQueue, myTid ); //wait on my tid
+                    // woken up by my child thread
+                    myTcb.addChildren( -1 );
+                    return childTid;
+                }
+                return ERROR;
+            case JOINALL: // wait once for all my children not joined yet
+                if ( ( myTcb = scheduler.getMyTcb( ) ) != null ) {
+                    int children = myTcb.getChildren( );
+                    if ( children > 0 ) {
+                        sleepOn( waitQueue, myTcb.getTid( ), children );
+                        myTcb.addChildren( -children );
+                    }
+                    return children;
+                }
+                return ERROR;
+            case WAITPID: // param = the child to wait for
+                if ( ( myTcb = scheduler.getMyTcb( ) ) != null ) {
+                    int myTid = myTcb.getTid( );
+                    TCB child = scheduler.getTcb( param );
+                    // a live child of mine, or one that has exited
+                    // and not been joined yet
+                    if ( ( child != null && child.getPid( ) == myTid )
+                         || waitQueue.posted( myTid, param ) ) {
+                        sleepOnFor( waitQueue, myTid, param );
+                        myTcb.addChildren( -1 );
+                        return param;
+                    }
+                }
+                return ERROR;
+            case EXIT:
+                if ( ( myTcb = scheduler.getMyTcb( ) ) != null ) {
+                    int myPid = myTcb.getPid( ); // get my parent ID
+                    int myTid = myTcb.getTid( ); // get my ID
+                    if ( myPid != -1 ) {
+                        // wake up a thread waiting on my parent ID
+                        waitQueue.dequeueAndWakeup( myPid, myTid );
+                        // I'm terminated!
+                        scheduler.deleteThread( );
                         return OK;
-                    case READ:
-                        switch ( param ) {
-                            case STDIN:
-                                try {
-                                    String s = input.readLine(); // read a keyboard input
-                                    if ( s == null ) {
-                                        return ERROR;
-                                    }
-                                    // prepare a read buffer
-                                    StringBuffer buf = ( StringBuffer )args;
-
-                                    // append the keyboard intput to this read buffer
-                                    buf.append( s );
-
-                                    // return the number of chars read from keyboard
-                                    return s.length( );
-                                } catch ( IOException e ) {
-                                    System.out.println( e );
-                                    return ERROR;
-                                }
-                            case STDOUT:
-                            case STDERR:
-                                System.out.println( "threaOS: caused read errors" );
+                    }
+                }
+                return ERROR;
+            case SLEEP:   // sleep a given period of milliseconds
+                scheduler.sleepThread( param ); // param = milliseconds
+                return OK;
+            case RAWREAD: // read a block of data from disk
+                return awaitDisk( disk.read( param, ( byte[] )args ) );
+            case RAWWRITE: // write a block of data to disk
+                return awaitDisk( disk.write( param, ( byte[] )args ) );
+            case RAWREADV:  // args = { int[] blocks, byte[][] buffers }
+                Object readv[] = ( Object[] )args;
+                return awaitDisk( disk.readv( ( int[] )readv[0], ( byte[][] )readv[1] ) );
+            case RAWWRITEV: // args = { int[] blocks, byte[][] buffers }
+                Object writev[] = ( Object[] )args;
+                return awaitDisk( disk.writev( ( int[] )writev[0], ( byte[][] )writev[1] ) );
+            case AREAD:   // queue a read and return its handle
+                if ( ( myTcb = scheduler.getMyTcb( ) ) == null )
+                    return ERROR;
+                return submitIo( myTcb, disk.read( param, ( byte[] )args ) );
+            case AWRITE:  // queue a write and return its handle
+                if ( ( myTcb = scheduler.getMyTcb( ) ) == null )
+                    return ERROR;
+                return submitIo( myTcb, disk.write( param, ( byte[] )args ) );
+            case IOWAIT:  // args = the handles to wait for
+                if ( ( myTcb = scheduler.getMyTcb( ) ) == null )
+                    return ERROR;
+                return ioWait( myTcb, ( int[] )args );
+            case IOPOLL:  // param = handle
+                if ( ( myTcb = scheduler.getMyTcb( ) ) == null )
+                    return ERROR;
+                return ioPoll( myTcb, param );
+            case SYNC:     // synchronize disk data to a real file
+                return awaitDisk( disk.sync( ) );
+            case READ:
+                switch ( param ) {
+                    case STDIN:
+                        try {
+                            String s = input.readLine(); // read a keyboard input
+                            if ( s == null ) {
                                 return ERROR;
+                            }
+                            // prepare a read buffer
+                            StringBuffer buf = ( StringBuffer )args;
 
-                            /*------------------------------------------------------------------
-                            *                    Added for Final Project
-                            -----------------------------------------------------------------*/
-
-                            default:
-
-                                myTcb = scheduler.getMyTcb();
+                            // append the keyboard intput to this read buffer
+                            buf.append( s );
 
-                                if (myTcb != null) {
-                                    entry = myTcb.getFtEnt(param);
+                            // return the number of chars read from keyboard
+                            return s.length( );
+                        } catch ( IOException e ) {
+                            System.out.println( e );
+                            return ERROR;
+                        }
+                    case STDOUT:
+                    case STDERR:
+                        System.out.println( "threaOS: caused read errors" );
+                        return ERROR;
 
-                                    if (entry == null) {
-                                        return ERROR;
-                                    }
+                    /*------------------------------------------------------------------
+                    *                    Added for Final Project
+                    -----------------------------------------------------------------*/
 
+                    default:
 
-                                    return fileSystem.read(entry, (byte[]) args);
+                        myTcb = scheduler.getMyTcb();
 
-                                }
+                        if (myTcb != null) {
+                            entry = myTcb.getFtEnt(param);
 
+                            if (entry == null) {
                                 return ERROR;
+                            }
 
-                            /*---------------------------------------------------------------*/
-
-                        }
-
-                    case WRITE:
-                        switch ( param ) {
-                            case STDIN:
-                                System.out.println( "threaOS: cannot write to System.in" );
-                                return ERROR;
-                            case STDOUT:
-                                System.out.print( (String)args );
-                                break;
-                            case STDERR:
-                                System.err.print( (String)args );
-                                break;
-
-                            /*------------------------------------------------------------------
-                            *                    Added for Final Project
-                            -----------------------------------------------------------------*/
-                            default:
-
-                                myTcb = scheduler.getMyTcb();
-                                if (myTcb != null) {
-                                    entry = myTcb.getFtEnt(param);
-
-                                    if (entry != null) {
-                                        return fileSystem.write(entry, (byte[]) args);
-                                    }
-
-                                }
-                                return ERROR;
 
-                            /*----------------------------------------------------------------*/
+                            return fileSystem.read(entry, (byte[]) args);
 
                         }
-                        return OK;
-                    case CREAD:   // to be implemented in assignment 4
-                        return cache.read( param, ( byte[] )args ) ? OK : ERROR;
-                    case CWRITE:  // to be implemented in assignment 4
-                        return cache.write( param, ( byte[] )args ) ? OK : ERROR;
-                    case CSYNC:   // to be implemented in assignment 4
-                        cache.sync( );
-                        return OK;
-                    case CFLUSH:  // to be implemented in assignment 4
-                        cache.flush( );
-                        return OK;
 
-                    /*------------------------------------------------------------------
-                     *                    Added for Final Project
-                     -----------------------------------------------------------------*/
+                        return ERROR;
 
-                    case OPEN:
-                        myTcb = scheduler.getMyTcb();
+                    /*---------------------------------------------------------------*/
 
-                        if (myTcb != null) {
-                            String fileInfo[] = (String[]) args;
-                            entry = fileSystem.open(fileInfo[0], fileInfo[1]);
+                }
 
-                            return myTcb.getFd(entry);
-                        }
+            case WRITE:
+                switch ( param ) {
+                    case STDIN:
+                        System.out.println( "threaOS: cannot write to System.in" );
                         return ERROR;
+                    case STDOUT:
+                        System.out.print( (String)args );
+                        break;
+                    case STDERR:
+                        System.err.print( (String)args );
+                        break;
 
-                    case CLOSE:
+                    /*------------------------------------------------------------------
+                    *                    Added for Final Project
+                    -----------------------------------------------------------------*/
+                    default:
 
                         myTcb = scheduler.getMyTcb();
                         if (myTcb != null) {
-                            entry = myTcb.returnFd(param);
+                            entry = myTcb.getFtEnt(param);
 
                             if (entry != null) {
-                                if (fileSystem.close(entry) != -1) {
-                                    return OK;
-                                }
+                                return fileSystem.write(entry, (byte[]) args);
                             }
-                        }
 
+                        }
                         return ERROR;
 
-                    case SIZE:
-                        return OK;
+                    /*----------------------------------------------------------------*/
 
+                }
+                return OK;
+            case CREAD:   // to be implemented in assignment 4
+                return cache.read( param, ( byte[] )args ) ? OK : ERROR;
+            case CWRITE:  // to be implemented in assignment 4
+                return cache.write( param, ( byte[] )args ) ? OK : ERROR;
+            case CSYNC:   // to be implemented in assignment 4
+                cache.sync( );
+                return OK;
+            case CFLUSH:  // to be implemented in assignment 4
+                cache.flush( );
+                return OK;
 
-                    case SEEK:
-                        myTcb = scheduler.getMyTcb();
-                        if (myTcb != null) {
-                            int fileInfo[] = (int[]) args;
-                            entry = myTcb.getFtEnt(fileInfo[0]);
+            /*------------------------------------------------------------------
+             *                    Added for Final Project
+             -----------------------------------------------------------------*/
 
-                            if (entry == null) {
-                                return ERROR;
-                            }
+            case OPEN:
+                myTcb = scheduler.getMyTcb();
 
-                            return fileSystem.seek(entry, fileInfo[1], fileInfo[2]);
-                        }
+                if (myTcb != null) {
+                    String fileInfo[] = (String[]) args;
+                    entry = fileSystem.open(fileInfo[0], fileInfo[1]);
 
-                        return ERROR;
+                    return myTcb.getFd(entry);
+                }
+                return ERROR;
 
-                    case FORMAT:
-                        return fileSystem.format(param);
+            case CLOSE:
 
-                    case DELETE:
+                myTcb = scheduler.getMyTcb();
+                if (myTcb != null) {
+                    entry = myTcb.returnFd(param);
 
-                        if (fileSystem.delete((String) args) != -1) {
+                    if (entry != null) {
+                        if (fileSystem.close(entry) != -1) {
                             return OK;
                         }
+                    }
+                }
 
-                        return OK;
+                return ERROR;
 
-                    /*----------------------------------------------------------------*/
+            case SIZE:
+                return OK;
+
+
+            case SEEK:
+                myTcb = scheduler.getMyTcb();
+                if (myTcb != null) {
+                    int fileInfo[] = (int[]) args;
+                    entry = myTcb.getFtEnt(fileInfo[0]);
+
+                    if (entry == null) {
+                        return ERROR;
+                    }
 
+                    return fileSystem.seek(entry, fileInfo[1], fileInfo[2]);
                 }
+
                 return ERROR;
-            case INTERRUPT_DISK: // Disk interrupts
-                // wake up the thread waiting for a service completion
-                ioQueue.dequeueAndWakeup( COND_DISK_FIN );
-                return OK;
-            case INTERRUPT_IO:   // other I/O interrupts (not implemented)
+
+            case FORMAT:
+                return fileSystem.format(param);
+
+            case DELETE:
+
+                if (fileSystem.delete((String) args) != -1) {
+                    return OK;
+                }
+
                 return OK;
+
+            /*----------------------------------------------------------------*/
+
         }
-        return OK;
+        return ERROR;
     }
 
-    // Spawning a new thread
-    private static int sysExec( String args[] ) {
-        String thrName = args[0]; // args[0] has a thread name
-        Object thrObj = null;
+    // Sleep on a kernel wait queue. The caller is BLOCKED meanwhile, so
+    // that it leaves the run queues and wastes no quanta.
+    private static int sleepOn( SyncQueue queue, int condition ) {
+        return sleepOn( queue, condition, 1 );
+    }
 
-        try {
-            //get the user thread class from its name
-            Class thrClass = Class.forName( thrName );
-            if ( args.length == 1 ) // no arguments
-                thrObj = thrClass.newInstance( ); // instantiate this class obj
-            else {                  // some arguments
-                // copy all arguments into thrArgs[] and make a new constructor
-                // argument object from thrArgs[]
-                String thrArgs[] = new String[ args.length - 1 ];
-                for ( int i = 1; i < args.length; i++ )
-                    thrArgs[i - 1] = args[i];
-                Object[] constructorArgs = new Object[] { thrArgs };
-
-                // locate this class object's constructors
-                Constructor thrConst
-                        = thrClass.getConstructor( new Class[] {String[].class} );
-
-                // instantiate this class object by calling this constructor
-                // with arguments
-                thrObj = thrConst.newInstance( constructorArgs );
-            }
-            // instantiate a new thread of this object
-            Thread t = new Thread( (Runnable)thrObj );
+    // The same, until count wakeups have come
+    private static int sleepOn( SyncQueue queue, int condition, int count ) {
+        scheduler.block( );
+        int id = queue.enqueueAndSleep( condition, count );
+        scheduler.unblock( );
+        return id;
+    }
+
+    // The same, until the given ID in particular has come
+    private static int sleepOnFor( SyncQueue queue, int condition, int id ) {
+        scheduler.block( );
+        id = queue.enqueueAndSleepFor( condition, id );
+        scheduler.unblock( );
+        return id;
+    }
 
-            // add this thread into scheduler's circular list.
-            TCB newTcb = scheduler.addThread( t );
-            return ( newTcb != null ) ? newTcb.getTid( ) : ERROR;
+    // Wait, BLOCKED, until the disk has served request. Disk waits are
+    // ones the scheduling policy may reward. A nested syscall keeps its
+    // CPU instead, as it must not wait for one again.
+    private static int awaitDisk( Disk.Request request ) {
+        if ( request == null )
+            return ERROR;
+        TCB myTcb = scheduler.getMyTcb( );
+        if ( myTcb != null && myTcb.inNestedSyscall( ) ) {
+            request.await( );
+            return OK;
         }
-        catch ( ClassNotFoundException e ) {
-            System.out.println( e );
+        scheduler.block( true );
+        request.await( );
+        scheduler.unblock( );
+        return OK;
+    }
+
+    // Register request under a new handle of tcb's, or fail if it was
+    // refused
+    private static int submitIo( TCB tcb, Disk.Request request ) {
+        if ( request == null )
             return ERROR;
+        return tcb.addIo( request );
+    }
+
+    // Wait, BLOCKED, until every request in handles has been served, and
+    // reap them. Only tcb's own handles count: ERROR if any handle is
+    // unknown to it; the others are still waited for.
+    private static int ioWait( TCB tcb, int handles[] ) {
+        int result = OK;
+        boolean blocked = false;
+        for ( int i = 0; i < handles.length; i++ ) {
+            Disk.Request request = tcb.removeIo( handles[i] );
+            if ( request == null ) {
+                result = ERROR;
+                continue;
+            }
+            if ( !blocked && !request.isDone( ) ) {
+                scheduler.block( true );
+                blocked = true;
+            }
+            request.await( );
         }
-        catch ( NoSuchMethodException e ) {
-            System.out.println( e );
+        if ( blocked )
+            scheduler.unblock( );
+        return result;
+    }
+
+    // 1, reaping the request, if tcb's handle has been served, 0 if not
+    // yet, or ERROR if tcb has no such handle
+    private static int ioPoll( TCB tcb, int handle ) {
+        Disk.Request request = tcb.getIo( handle );
+        if ( request == null )
             return ERROR;
+        if ( !request.isDone( ) )
+            return 0;
+        tcb.removeIo( handle );
+        return 1;
+    }
+
+    // Sleep on a futex word unless it no longer holds expected. The caller
+    // is BLOCKED until futexWake( ) on the same word picks it.
+    private static int futexWait( AtomicInteger word, int expected ) {
+        Object ticket = futexes.enqueue( word, expected );
+        if ( ticket == null )
+            return ERROR; // the word has changed: try again
+        scheduler.block( );
+        futexes.await( ticket );
+        scheduler.unblock( );
+        return OK;
+    }
+
+    // The same, for kernel code that waits on a monitor of its own, such
+    // as FileTable: call block( ) before the wait and unblock( ) after it
+    static void block( ) {
+        if ( scheduler != null )
+            scheduler.block( );
+    }
+
+    static void unblock( ) {
+        if ( scheduler != null )
+            scheduler.unblock( );
+    }
+
+    // Close the files the calling thread still has open as its run( )
+    // returns, as exit( ) would have done; it may have returned without
+    // calling it. This runs on the thread itself, before the dispatcher
+    // can see it end, so that no dispatcher waits on the file system.
+    private static void closeFiles( ) {
+        TCB myTcb = scheduler.getMyTcb( );
+        if ( myTcb == null || myTcb.getTerminated( ) )
+            return;
+        for ( int fd = 3; fd < 32; fd++ )
+            if ( myTcb.getFtEnt( fd ) != null )
+                SysLib.close( fd );
+    }
+
+    // Spawning a new thread
+    private static int sysExec( String args[], int weight ) {
+        Thread t = loadProgram( args );
+        if ( t == null )
+            return ERROR;
+
+        // add this thread into scheduler's circular list.
+        TCB newTcb = scheduler.addThread( t, weight );
+        return ( newTcb != null ) ? newTcb.getTid( ) : ERROR;
+    }
+
+    // Spawning many threads in one kernel entry. Their TIDs, or ERROR for
+    // a program that could not be spawned, go into tids; the number
+    // spawned is returned.
+    private static int sysExecBatch( String programs[][], int tids[] ) {
+        Thread threads[] = new Thread[programs.length];
+        for ( int i = 0; i < programs.length; i++ )
+            threads[i] = loadProgram( programs[i] );
+        TCB added[] = scheduler.addThreads( threads );
+        int spawned = 0;
+        for ( int i = 0; i < added.length; i++ ) {
+            if ( tids != null )
+                tids[i] = ( added[i] != null ) ? added[i].getTid( ) : ERROR;
+            if ( added[i] != null )
+                spawned++;
         }
-        catch ( InstantiationException e ) {
-            System.out.println( e );
+        return spawned;
+    }
+
+    // Spawning a new real-time thread, subject to admission control
+    private static int sysExecRealTime( String args[], int timing[] ) {
+        Thread t = loadProgram( args );
+        if ( t == null )
             return ERROR;
+
+        TCB newTcb = scheduler.addRealTimeThread( t, timing[0], timing[1], timing[2] );
+        if ( newTcb == null )
+            System.err.println( "threadOS: " + args[0] + " rejected by admission control" );
+        return ( newTcb != null ) ? newTcb.getTid( ) : ERROR;
+    }
+
+    // Instantiate a user program and wrap it in a new thread; null on error
+    private static Thread loadProgram( String args[] ) {
+        Runnable program = instantiate( args );
+        return ( program != null ) ? newUserThread( program ) : null;
+    }
+
+    // The constructors of one user program class, resolved once and then
+    // called through method handles on every exec of that program
+    private static class Program {
+        MethodHandle noArgs = null;   // new C( ), or null if there is none
+        MethodHandle withArgs = null; // new C( String[] ), or null
+
+        Program( Class<?> thrClass ) throws IllegalAccessException {
+            MethodHandles.Lookup lookup = MethodHandles.lookup( );
+            try {
+                Constructor<?> c = thrClass.getDeclaredConstructor( );
+                c.setAccessible( true );
+                noArgs = lookup.unreflectConstructor( c )
+                        .asType( MethodType.methodType( Object.class ) );
+            } catch ( NoSuchMethodException e ) {
+            }
+            try {
+                Constructor<?> c = thrClass.getConstructor( String[].class );
+                c.setAccessible( true );
+                withArgs = lookup.unreflectConstructor( c )
+                        .asType( MethodType.methodType( Object.class, String[].class ) );
+            } catch ( NoSuchMethodException e ) {
+            }
         }
-        catch ( IllegalAccessException e ) {
+    }
+
+    // Resolved programs by class name. An entry stays valid until
+    // reloadProgram( ) replaces the class behind its name.
+    private static ConcurrentHashMap<String, Program> programs =
+            new ConcurrentHashMap<String, Program>( );
+
+    // Create a user program object from args[0] (its class name) and the
+    // rest of args (its constructor arguments); null on error
+    static Runnable instantiate( String args[] ) {
+        String thrName = args[0]; // args[0] has a thread name
+        try {
+            Program program = programs.get( thrName );
+            if ( program == null ) {
+                //get the user thread class from its name
+                program = new Program( Class.forName( thrName ) );
+                Program raced = programs.putIfAbsent( thrName, program );
+                if ( raced != null )
+                    program = raced;
+            }
+            if ( args.length == 1 ) { // no arguments
+                if ( program.noArgs == null )
+                    throw new InstantiationException( thrName );
+                return ( Runnable )( Object )program.noArgs.invokeExact( );
+            }
+            // some arguments: pass all but the class name
+            if ( program.withArgs == null )
+                throw new NoSuchMethodException( thrName + ".<init>(String[])" );
+            String thrArgs[] = new String[ args.length - 1 ];
+            for ( int i = 1; i < args.length; i++ )
+                thrArgs[i - 1] = args[i];
+            return ( Runnable )( Object )program.withArgs.invokeExact( thrArgs );
+        }
+        catch ( Throwable e ) {
+            // ClassNotFound, NoSuchMethod, Instantiation, IllegalAccess,
+            // ClassCast, or an exception thrown by the constructor
             System.out.println( e );
-            return ERROR;
+            return null;
         }
-        catch ( InvocationTargetException e ) {
+    }
+
+    // Load the class of a program afresh from the class path, so that a
+    // recompiled program runs without rebooting ThreadOS, and drop the
+    // constructors cached for its old class
+    private static int reloadProgram( String thrName ) {
+        try {
+            Class<?> thrClass = new ProgramLoader( thrName ).loadClass( thrName );
+            programs.put( thrName, new Program( thrClass ) );
+            return OK;
+        }
+        catch ( Throwable e ) {
             System.out.println( e );
+            programs.remove( thrName );
             return ERROR;
         }
     }
+
+    // A class loader for one program: it defines the program's class and
+    // nested classes from their class files itself rather than asking its
+    // parent, which would return the classes it loaded before
+    private static class ProgramLoader extends ClassLoader {
+        private String thrName;
+
+        ProgramLoader( String thrName ) {
+            super( Kernel.class.getClassLoader( ) );
+            this.thrName = thrName;
+        }
+
+        protected Class<?> loadClass( String name, boolean resolve )
+                throws ClassNotFoundException {
+            if ( !name.equals( thrName ) && !name.startsWith( thrName + "$" ) )
+                return super.loadClass( name, resolve );
+            synchronized ( getClassLoadingLock( name ) ) {
+                Class<?> c = findLoadedClass( name );
+                if ( c == null ) {
+                    byte code[] = readClassFile( name );
+                    c = defineClass( name, code, 0, code.length );
+                }
+                if ( resolve )
+                    resolveClass( c );
+                return c;
+            }
+        }
+
+        private byte[] readClassFile( String name ) throws ClassNotFoundException {
+            InputStream in = getParent( ).getResourceAsStream(
+                    name.replace( '.', '/' ) + ".class" );
+            if ( in == null )
+                throw new ClassNotFoundException( name );
+            try {
+                ByteArrayOutputStream code = new ByteArrayOutputStream( );
+                byte buffer[] = new byte[4096];
+                int n;
+                while ( ( n = in.read( buffer ) ) > 0 )
+                    code.write( buffer, 0, n );
+                in.close( );
+                return code.toByteArray( );
+            } catch ( IOException e ) {
+                throw new ClassNotFoundException( name, e );
+            }
+        }
+    }
+
+    // Select the thread type for user programs. Thread.ofVirtual( ) is
+    // looked up reflectively so that ThreadOS still builds and runs on
+    // JVMs without virtual threads, falling back to platform threads.
+    static void useVirtualThreads( boolean enable ) {
+        ofVirtual = null;
+        unstarted = null;
+        if ( !enable )
+            return;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup( );
+            Class<?> builder = Class.forName( "java.lang.Thread$Builder" );
+            Class<?> ofVirtualBuilder = Class.forName( "java.lang.Thread$Builder$OfVirtual" );
+            MethodHandle factory = lookup.findStatic( Thread.class, "ofVirtual",
+                    MethodType.methodType( ofVirtualBuilder ) );
+            factory.invoke( ); // throws if virtual threads are a disabled preview
+            unstarted = lookup.findVirtual( builder, "unstarted",
+                    MethodType.methodType( Thread.class, Runnable.class ) );
+            ofVirtual = factory;
+        } catch ( Throwable e ) {
+            unstarted = null;
+            System.err.println( "threadOS: virtual threads unavailable (" + e +
+                    "), using platform threads" );
+        }
+    }
+
+    // The number of blocks on the DISK
+    static int diskBlocks( ) {
+        return disk.getSize( );
+    }
+
+    static boolean usingVirtualThreads( ) {
+        return ofVirtual != null;
+    }
+
+    // Create an unstarted thread for a user program
+    static Thread newUserThread( final Runnable program ) {
+        Runnable body = new Runnable( ) {
+            public void run( ) {
+                try {
+                    program.run( );
+                } finally {
+                    closeFiles( );
+                }
+            }
+        };
+        if ( ofVirtual != null ) {
+            try {
+                // a fresh builder per call: builders are not thread-safe
+                return ( Thread )unstarted.invoke( ofVirtual.invoke( ), body );
+            } catch ( Throwable e ) {
+                System.err.println( "threadOS: " + e );
+            }
+        }
+        return new Thread( body );
+    }
 }
@@ -15,6 +15,17 @@ public class Loader extends Thread
 	SysLib.cout( "?:       print a help message\n" );
 	SysLib.cout( "q:       exit from threadOS\n" );
 	SysLib.cout( "l prog:  load prog\n" );
+	SysLib.cout( "r prog:  reload prog's class, then load prog\n" );
+    }
+
+    // Load the program named in cmdLine and wait for it to finish
+    private static void load( String cmdLine ) {
+	String intrArgs[] = SysLib.stringToArgs( cmdLine.substring( 2 ) );
+	if ( SysLib.exec( intrArgs ) == ERROR ) {
+	    SysLib.cerr( intrArgs[0] + " failed in loading\n" );
+	    return;
+	}
+	SysLib.join( );
     }
 
     public void run( ) {
@@ -38,16 +49,16 @@ public class Loader extends Thread
 		SysLib.sync( );
 		System.exit( 1 );
 		break;
-	    case 'l':
-		String intrArgs[]
-		    = SysLib.stringToArgs( cmdLine.substring( 2 ) );
-		if ( SysLib.exec( intrArgs ) == ERROR ) {
-		    SysLib.cerr( intrArgs[0] + " failed in loading\n" );
+	    case 'r':
+		String className = SysLib.stringToArgs( cmdLine.substring( 2 ) )[0];
+		if ( SysLib.reload( className ) == ERROR ) {
+		    SysLib.cerr( className + " failed in reloading\n" );
 		    break;
 		}
-		SysLib.join( );
+		load( cmdLine );
 		break;
-	    case 'r':
+	    case 'l':
+		load( cmdLine );
 		break;
 	    }
 	}
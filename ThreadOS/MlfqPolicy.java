@@ -0,0 +1,123 @@
+// Multi-level feedback queue: level 0 is the highest priority level.
+// A thread that uses up its whole quantum is demoted one level, and
+// one whose slice ends in a disk wait is promoted one level, so that
+// I/O-bound threads get back to the disk quickly while CPU hogs sink to
+// the long quanta. A thread that gives up the CPU early for any other
+// reason stays where it is. Quanta double
+// from one level to the next, centered on timeSlice: 500/1000/2000 ms by
+// default.
+// Starvation control: a TCB that has waited agingThreshold ms at one
+// level moves up a level, and every boostInterval ms all TCBs go back
+// to level 0. Zero disables either of them.
+public class MlfqPolicy implements SchedulingPolicy {
+    private RunQueue[] queue;
+    private int[] quantum;     // time slice of each level
+    private int agingThreshold;
+    private int boostInterval;
+    private long lastBoost = System.currentTimeMillis( );
+    private long dispatchTime = 0; // when the last picked TCB was picked
+
+    public MlfqPolicy( int timeSlice, int levels,
+		       int agingThreshold, int boostInterval ) {
+	queue = new RunQueue[levels];
+	quantum = new int[levels];
+	for ( int i = 0; i < levels; i++ ) {
+	    queue[i] = new RunQueue( );
+	    quantum[i] = ( timeSlice / 2 ) << i;
+	}
+	this.agingThreshold = agingThreshold;
+	this.boostInterval = boostInterval;
+    }
+
+    // Return the highest level that has a runnable TCB, or -1 if none
+    private int nextLevel( ) {
+	for ( int level = 0; level < queue.length; level++ )
+	    if ( !queue[level].isEmpty( ) )
+		return level;
+	return -1;
+    }
+
+    // Promote every TCB that has waited too long at its level. Each
+    // level is in enqueue order, so only the heads need to be checked.
+    private void age( long now ) {
+	for ( int level = 1; level < queue.length; level++ ) {
+	    while ( !queue[level].isEmpty( ) &&
+		    now - queue[level].peekFirst( ).getEnqueueTime( ) >= agingThreshold ) {
+		TCB tcb = queue[level].pollFirst( );
+		tcb.setLevel( level - 1 );
+		tcb.promoted( );
+		enqueue( tcb );
+	    }
+	}
+    }
+
+    // Move every queued TCB to level 0
+    private void boost( ) {
+	for ( int level = 1; level < queue.length; level++ ) {
+	    while ( !queue[level].isEmpty( ) ) {
+		TCB tcb = queue[level].pollFirst( );
+		tcb.setLevel( 0 );
+		tcb.boosted( );
+		queue[0].addLast( tcb );
+	    }
+	}
+    }
+
+    public void enqueue( TCB tcb ) {
+	tcb.setEnqueueTime( System.currentTimeMillis( ) );
+	queue[tcb.getLevel( )].addLast( tcb );
+    }
+
+    public TCB pickNext( ) {
+	long now = System.currentTimeMillis( );
+	if ( boostInterval > 0 && now - lastBoost >= boostInterval ) {
+	    boost( );
+	    lastBoost = now;
+	}
+	if ( agingThreshold > 0 )
+	    age( now );
+	int level = nextLevel( );
+	if ( level == -1 )
+	    return null;
+	dispatchTime = now;
+	return queue[level].pollFirst( );
+    }
+
+    public int quantum( TCB tcb ) {
+	return quantum[tcb.getLevel( )];
+    }
+
+    public void account( TCB tcb, int used, boolean expired ) {
+	int level = tcb.getLevel( );
+	if ( lastBoost > dispatchTime && level > 0 ) {
+	    // a boost happened while it was running
+	    tcb.setLevel( 0 );
+	    tcb.boosted( );
+	} else if ( expired && level < queue.length - 1 )
+	    tcb.setLevel( level + 1 ); // used its whole slice: demote
+	else if ( !expired && tcb.getIoBlocked( ) && level > 0 )
+	    tcb.setLevel( level - 1 ); // blocked on the disk: promote
+    }
+
+    public boolean shouldPreempt( TCB running ) {
+	int ready = nextLevel( );
+	return ready != -1 && ready < running.getLevel( );
+    }
+
+    // Give away the most recently queued TCB of the highest ready level
+    public TCB steal( ) {
+	int level = nextLevel( );
+	return ( level == -1 ) ? null : queue[level].pollLast( );
+    }
+
+    public boolean remove( TCB tcb ) {
+	return queue[tcb.getLevel( )].remove( tcb );
+    }
+
+    public int size( ) {
+	int size = 0;
+	for ( int level = 0; level < queue.length; level++ )
+	    size += queue[level].size( );
+	return size;
+    }
+}
@@ -0,0 +1,120 @@
+import java.io.*;
+
+/**
+ * Measures how long ThreadOS takes to boot as its DISK image grows. For
+ * 1k, 100k and 4M-block images (512 KB, 50 MB and 2 GB) it times a full
+ * SysLib.boot( ), from the disk mount to the file system reading its
+ * superblock and directory, with a lazy mount, which pages blocks in on
+ * first access, and with an eager one, which reads the whole image in
+ * first. The lazy boot should take the same time at every size.
+ *
+ * Every boot runs in a JVM of its own, in a scratch directory whose DISK
+ * is a sparse file carrying the same formatted 1000-block file system, so
+ * no boot has to format. The file system is formatted once up front,
+ * which takes a while. The scratch files are deleted afterwards; the
+ * DISK image in the current directory is not touched.
+ *
+ * To run: java MountBench [rounds]
+ */
+public class MountBench {
+
+    private static final int SIZES[] = { 1000, 100000, 4 * 1024 * 1024 };
+
+    // Run in the child JVM: boot, print the ms it took on stdout, and exit
+    public static class Boot {
+	public static void main( String args[] ) {
+	    long start = System.nanoTime( );
+	    int result = SysLib.boot( );
+	    double ms = ( System.nanoTime( ) - start ) / 1e6;
+	    if ( result == Kernel.OK )
+		SysLib.sync( );
+	    System.out.println( ( result == Kernel.OK ) ? "" + ms : "ERROR" );
+	    System.exit( 0 );
+	}
+    }
+
+    // Boot a child JVM in dir with the given options; the ms its boot took
+    private static double boot( File dir, String... options )
+	throws IOException, InterruptedException {
+	String classPath = "";
+	for ( String entry : System.getProperty( "java.class.path" )
+		  .split( File.pathSeparator ) )
+	    classPath += ( classPath.isEmpty( ) ? "" : File.pathSeparator ) +
+		new File( entry ).getAbsolutePath( );
+	String command[] = new String[options.length + 4];
+	command[0] = System.getProperty( "java.home" ) + File.separator +
+	    "bin" + File.separator + "java";
+	command[1] = "-cp";
+	command[2] = classPath;
+	System.arraycopy( options, 0, command, 3, options.length );
+	command[command.length - 1] = "MountBench$Boot";
+	Process child = new ProcessBuilder( command ).directory( dir )
+	    .redirectError( ProcessBuilder.Redirect.DISCARD ).start( );
+	BufferedReader out =
+	    new BufferedReader( new InputStreamReader( child.getInputStream( ) ) );
+	String line = out.readLine( );
+	child.waitFor( );
+	if ( line == null || line.equals( "ERROR" ) )
+	    throw new IOException( "boot failed in " + dir );
+	return Double.parseDouble( line );
+    }
+
+    // Copy the first bytes of from into to
+    private static void copy( File from, File to, long bytes ) throws IOException {
+	RandomAccessFile in = new RandomAccessFile( from, "r" );
+	RandomAccessFile out = new RandomAccessFile( to, "rw" );
+	byte buffer[] = new byte[64 * 1024];
+	for ( long done = 0; done < bytes; ) {
+	    int n = in.read( buffer, 0, ( int )Math.min( buffer.length, bytes - done ) );
+	    if ( n < 0 )
+		break;
+	    out.write( buffer, 0, n );
+	    done += n;
+	}
+	in.close( );
+	out.close( );
+    }
+
+    private static void delete( File dir ) {
+	File files[] = dir.listFiles( );
+	if ( files != null )
+	    for ( int i = 0; i < files.length; i++ )
+		files[i].delete( );
+	dir.delete( );
+    }
+
+    public static void main( String args[] ) throws Exception {
+	int rounds = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : 3;
+
+	// format the file system once, on a disk of its own size
+	File formatted = File.createTempFile( "threadOS", "" );
+	formatted.delete( );
+	formatted.mkdir( );
+	boot( formatted, "-DthreadOS.diskBlocks=" + Kernel.DEFAULT_DISK_BLOCKS );
+	File image = new File( formatted, "DISK" );
+
+	for ( int i = 0; i < SIZES.length; i++ ) {
+	    File dir = File.createTempFile( "threadOS", "" );
+	    dir.delete( );
+	    dir.mkdir( );
+	    File disk = new File( dir, "DISK" );
+	    RandomAccessFile raf = new RandomAccessFile( disk, "rw" );
+	    raf.setLength( ( long )SIZES[i] * Disk.blockSize );
+	    raf.close( );
+	    copy( image, disk, ( long )Kernel.DEFAULT_DISK_BLOCKS * Disk.blockSize );
+
+	    double lazy = Double.MAX_VALUE;
+	    double eager = Double.MAX_VALUE;
+	    for ( int r = 0; r < rounds; r++ ) {
+		lazy = Math.min( lazy, boot( dir, "-DthreadOS.diskBlocks=" + SIZES[i] ) );
+		eager = Math.min( eager, boot( dir, "-DthreadOS.diskBlocks=" + SIZES[i],
+					       "-DthreadOS.diskMount=eager" ) );
+	    }
+	    System.out.println( String.format( "%8d blocks: lazy boot %8.2f ms, eager boot %9.2f ms",
+					       SIZES[i], lazy, eager ) );
+	    delete( dir );
+	}
+	delete( formatted );
+	System.exit( 0 );
+    }
+}
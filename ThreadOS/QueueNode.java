@@ -0,0 +1,68 @@
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+// One wait condition of a SyncQueue: the IDs passed to wakeup( ) are
+// queued until a sleeping thread picks them up. A node has no lock of
+// its own; its SyncQueue calls it with the queue's lock held, and the
+// sleepers wait on a Condition of that lock.
+public class QueueNode {
+    private ArrayDeque<Integer> pidQueue = new ArrayDeque<Integer>( );
+    private final Condition available;
+    private int sleepers = 0;
+    private int wanted = 1;       // IDs the sleeping thread waits for
+    private int wantedPid = -1;   // or the one ID it waits for
+
+    public QueueNode( Condition available ) {
+	this.available = available;
+    }
+
+    // Sleep until count IDs have been posted, then take them all and
+    // return the last one. The sleeper is woken up once, not per ID;
+    // only one thread may wait for more than one ID at a time.
+    int sleep( int count ) {
+	sleepers++;
+	wanted = count;
+	while ( pidQueue.size( ) < count )
+	    available.awaitUninterruptibly( );
+	wanted = 1;
+	sleepers--;
+	int pid = -1;
+	for ( int i = 0; i < count; i++ )
+	    pid = pidQueue.pollFirst( ).intValue( );
+	return pid;
+    }
+
+    // Sleep until pid itself has been posted, and take it out of the
+    // queue, leaving any other IDs where they are
+    int sleepFor( int pid ) {
+	sleepers++;
+	wantedPid = pid;
+	while ( !pidQueue.contains( Integer.valueOf( pid ) ) )
+	    available.awaitUninterruptibly( );
+	wantedPid = -1;
+	sleepers--;
+	pidQueue.remove( Integer.valueOf( pid ) );
+	return pid;
+    }
+
+    // Post an ID and wake up a sleeping thread if it now has what it
+    // waits for
+    void wakeup( int pid ) {
+	pidQueue.addLast( Integer.valueOf( pid ) );
+	if ( wantedPid != -1 ) {
+	    if ( pid == wantedPid )
+		available.signal( );
+	} else if ( pidQueue.size( ) >= wanted )
+	    available.signal( );
+    }
+
+    // Whether pid has been posted and not taken yet
+    boolean posted( int pid ) {
+	return pidQueue.contains( Integer.valueOf( pid ) );
+    }
+
+    // A node with no sleepers and no posted IDs can be dropped
+    boolean idle( ) {
+	return sleepers == 0 && pidQueue.isEmpty( );
+    }
+}
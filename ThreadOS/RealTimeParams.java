@@ -0,0 +1,47 @@
+// Timing parameters and per-period state of a real-time TCB: budget ms of
+// CPU every period ms, due deadline ms after the period starts. Only the
+// Scheduler touches these, with its run queue lock held.
+public class RealTimeParams {
+    final int budget;
+    final int period;
+    final int deadline;
+
+    long release;      // start of the current period
+    long absDeadline;  // deadline of the current period
+    int remaining;     // budget left in the current period
+    int jobs = 0;      // periods completed or missed
+    int misses = 0;    // periods whose budget was not served in time
+
+    public RealTimeParams( int budget, int period, int deadline, long now ) {
+	this.budget = budget;
+	this.period = period;
+	this.deadline = deadline;
+	release = now;
+	absDeadline = now + deadline;
+	remaining = budget;
+    }
+
+    // CPU share this TCB claims for admission control. With a deadline
+    // shorter than the period, the density budget / deadline is used.
+    double density( ) {
+	return ( double )budget / Math.min( deadline, period );
+    }
+
+    // Close the current period and start the next one
+    void nextPeriod( boolean missed ) {
+	jobs++;
+	if ( missed )
+	    misses++;
+	release += period;
+	absDeadline = release + deadline;
+	remaining = budget;
+    }
+
+    public int getJobs( ) {
+	return jobs;
+    }
+
+    public int getMisses( ) {
+	return misses;
+    }
+}
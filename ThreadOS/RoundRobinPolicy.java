@@ -0,0 +1,40 @@
+// Plain round robin: one FIFO queue, the same quantum for everybody.
+public class RoundRobinPolicy implements SchedulingPolicy {
+    private RunQueue queue = new RunQueue( );
+    private int timeSlice;
+
+    public RoundRobinPolicy( int timeSlice ) {
+	this.timeSlice = timeSlice;
+    }
+
+    public void enqueue( TCB tcb ) {
+	queue.addLast( tcb );
+    }
+
+    public TCB pickNext( ) {
+	return queue.pollFirst( );
+    }
+
+    public int quantum( TCB tcb ) {
+	return timeSlice;
+    }
+
+    public void account( TCB tcb, int used, boolean expired ) {
+    }
+
+    public boolean shouldPreempt( TCB running ) {
+	return false;
+    }
+
+    public TCB steal( ) {
+	return queue.pollLast( );
+    }
+
+    public boolean remove( TCB tcb ) {
+	return queue.remove( tcb );
+    }
+
+    public int size( ) {
+	return queue.size( );
+    }
+}
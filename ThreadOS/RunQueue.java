@@ -0,0 +1,66 @@
+// A FIFO run queue linked through the TCBs themselves, so that taking a
+// TCB out of the middle, as when it exits while waiting for its turn, is
+// O(1) instead of a scan. A TCB is in at most one RunQueue at a time.
+// Not synchronized: the policies call it with the Scheduler's lock held.
+public class RunQueue {
+    private TCB head = null;
+    private TCB tail = null;
+    private int count = 0;
+
+    public void addLast( TCB tcb ) {
+	tcb.runQueue = this;
+	tcb.runPrev = tail;
+	tcb.runNext = null;
+	if ( tail == null )
+	    head = tcb;
+	else
+	    tail.runNext = tcb;
+	tail = tcb;
+	count++;
+    }
+
+    public TCB peekFirst( ) {
+	return head;
+    }
+
+    public TCB pollFirst( ) {
+	TCB tcb = head;
+	if ( tcb != null )
+	    remove( tcb );
+	return tcb;
+    }
+
+    public TCB pollLast( ) {
+	TCB tcb = tail;
+	if ( tcb != null )
+	    remove( tcb );
+	return tcb;
+    }
+
+    // Unlink tcb wherever it is; whether it was in this queue
+    public boolean remove( TCB tcb ) {
+	if ( tcb.runQueue != this )
+	    return false;
+	if ( tcb.runPrev == null )
+	    head = tcb.runNext;
+	else
+	    tcb.runPrev.runNext = tcb.runNext;
+	if ( tcb.runNext == null )
+	    tail = tcb.runPrev;
+	else
+	    tcb.runNext.runPrev = tcb.runPrev;
+	tcb.runQueue = null;
+	tcb.runPrev = null;
+	tcb.runNext = null;
+	count--;
+	return true;
+    }
+
+    public boolean isEmpty( ) {
+	return count == 0;
+    }
+
+    public int size( ) {
+	return count;
+    }
+}
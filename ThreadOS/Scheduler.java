@@ -1,43 +1,147 @@
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
 
 public class Scheduler extends Thread
 {
-    private Vector queue;
+    // Each simulated CPU has its own run queue, ordered by a pluggable
+    // SchedulingPolicy (MLFQ by default); an idle CPU steals work from the
+    // busiest other one. All run queues share one lock.
+    private Cpu[] cpus;
+    private final Object lock = new Object( );
     private int timeSlice;
-    private static final int DEFAULT_TIME_SLICE = 1000;
+    static final int DEFAULT_TIME_SLICE = 1000;
+    private static final int LEVELS = 3;
+    private static final int CHECKS_PER_SLICE = 20;
+
+    // The real-time class: one EDF queue served by every CPU ahead of the
+    // time-sharing queues, and the CPU share its TCBs have been admitted to
+    private EdfPolicy realtime = new EdfPolicy( );
+    private double utilization = 0.0;
+
+    // Sleeping TCBs wait on a timer wheel, out of the run queues, and the
+    // Ticker thread puts them back as their ticks come due
+    private TimerWheel timers = new TimerWheel( TIMER_SLOTS, TIMER_TICK );
+    private ArrayList<TCB> expired = new ArrayList<TCB>( );
+    private static final int TIMER_SLOTS = 512;
+    private static final int TIMER_TICK = 10; // ms
+
+    // Policy configuration, applied to every CPU by initPolicies( )
+    private String policyName = DEFAULT_POLICY;
+    private int agingThreshold = DEFAULT_AGING_THRESHOLD;
+    private int boostInterval = DEFAULT_BOOST_INTERVAL;
+    private int targetLatency = DEFAULT_TARGET_LATENCY;
+    private int minGranularity = DEFAULT_MIN_GRANULARITY;
+    static final String DEFAULT_POLICY = "mlfq";
+    static final int DEFAULT_AGING_THRESHOLD = 5000;
+    static final int DEFAULT_BOOST_INTERVAL = 10000;
+    static final int DEFAULT_TARGET_LATENCY = 2000;
+    static final int DEFAULT_MIN_GRANULARITY = 250;
+
+    // Whether to print the metrics of every reaped TCB; SysLib.stats( )
+    // reads them without any output
+    private boolean reportStats = false;
+
+    // One simulated processor: a run queue, dispatched by its own thread.
+    // CPU 0 is dispatched by the Scheduler thread itself.
+    private class Cpu extends Thread {
+	private final int id;
+	private SchedulingPolicy policy;
+	private volatile Thread dispatcher; // the thread running dispatch( )
+
+	Cpu( int id ) {
+	    this.id = id;
+	}
+
+	public void run( ) {
+	    dispatch( this );
+	}
+    }
+
+    // Advances the timer wheel once per tick while anything is sleeping,
+    // and blocks while nothing is
+    private class Ticker extends Thread {
+	public void run( ) {
+	    while ( true ) {
+		long next;
+		synchronized( lock ) {
+		    while ( timers.isEmpty( ) ) {
+			try {
+			    lock.wait( );
+			} catch ( InterruptedException e ) {
+			}
+		    }
+		    timers.advance( System.currentTimeMillis( ), expired );
+		    for ( int i = 0; i < expired.size( ); i++ )
+			makeReady( expired.get( i ) );
+		    expired.clear( );
+		    next = timers.nextTick( );
+		}
+		long delay = next - System.currentTimeMillis( );
+		if ( delay > 0 )
+		    schedulerSleep( ( int )delay );
+	    }
+	}
+    }
+
+    // Every live TCB indexed by its thread, so that a syscall can find the
+    // caller's TCB without walking the run queues or locking them, and
+    // by its TID, for syscalls that name another thread
+    private ConcurrentHashMap<Thread, TCB> tcbs;
+    private ConcurrentHashMap<Integer, TCB> tcbsByTid;
 
     // New data added to p161 
-    private boolean[] tids; // Indicate which ids have been used
-    private static final int DEFAULT_MAX_THREADS = 10000;
+    // Thread IDs are handed out from a FIFO ring of returned IDs, and new
+    // IDs are minted only when the ring is empty. Memory grows with the
+    // peak number of live threads, not with maxThreads.
+    private BitSet tids;        // Indicate which ids are in use
+    private int[] freeTids;     // ring of returned ids, oldest first
+    private int freeHead = 0;
+    private int freeCount = 0;
+    private int maxThreads;
+    static final int DEFAULT_MAX_THREADS = 10000;
+    private static final int INITIAL_FREE_TIDS = 64;
 
     // A new feature added to p161 
-    // Allocate an ID array, each element indicating if that id has been used
-    private int nextId = 0;
+    // Prepare an empty ID allocator for up to maxThreads ids
+    private int nextId = 0;     // lowest id never handed out so far
     private void initTid( int maxThreads ) {
-	tids = new boolean[maxThreads];
-	for ( int i = 0; i < maxThreads; i++ )
-	    tids[i] = false;
+	this.maxThreads = maxThreads;
+	tids = new BitSet( );
+	freeTids = new int[INITIAL_FREE_TIDS];
     }
 
     // A new feature added to p161 
-    // Search an available thread ID and provide a new thread with this ID
-    private int getNewTid( ) {
-	for ( int i = 0; i < tids.length; i++ ) {
-	    int tentative = ( nextId + i ) % tids.length;
-	    if ( tids[tentative] == false ) {
-		tids[tentative] = true;
-		nextId = ( tentative + 1 ) % tids.length;
-		return tentative;
-	    }
-	}
-	return -1;
+    // Provide a new thread with the oldest returned ID, or a fresh one
+    private synchronized int getNewTid( ) {
+	int tid;
+	if ( freeCount > 0 ) {
+	    tid = freeTids[freeHead];
+	    freeHead = ( freeHead + 1 ) % freeTids.length;
+	    freeCount--;
+	} else if ( nextId < maxThreads )
+	    tid = nextId++;
+	else
+	    return -1;
+	tids.set( tid );
+	return tid;
     }
 
     // A new feature added to p161 
-    // Return the thread ID and set the corresponding tids element to be unused
-    private boolean returnTid( int tid ) {
-	if ( tid >= 0 && tid < tids.length && tids[tid] == true ) {
-	    tids[tid] = false;
+    // Return the thread ID and put it at the tail of the free ring
+    private synchronized boolean returnTid( int tid ) {
+	if ( tid >= 0 && tid < nextId && tids.get( tid ) ) {
+	    tids.clear( tid );
+	    if ( freeCount == freeTids.length ) {
+		// grow the ring, unrolling it so that the head is at 0
+		int[] larger = new int[freeTids.length * 2];
+		for ( int i = 0; i < freeCount; i++ )
+		    larger[i] = freeTids[( freeHead + i ) % freeTids.length];
+		freeTids = larger;
+		freeHead = 0;
+	    }
+	    freeTids[( freeHead + freeCount ) % freeTids.length] = tid;
+	    freeCount++;
 	    return true;
 	}
 	return false;
@@ -47,32 +151,50 @@ public class Scheduler extends Thread
     // Retrieve the current thread's TCB from the queue
     public TCB getMyTcb( ) {
 	Thread myThread = Thread.currentThread( ); // Get my thread object
-	synchronized( queue ) {
-	    for ( int i = 0; i < queue.size( ); i++ ) {
-		TCB tcb = ( TCB )queue.elementAt( i );
-		Thread thread = tcb.getThread( );
-		if ( thread == myThread ) // if this is my TCB, return it
-		    return tcb;
-	    }
-	}
-	return null;
+	return tcbs.get( myThread );
     }
 
     // A new feature added to p161 
     // Return the maximal number of threads to be spawned in the system
     public int getMaxThreads( ) {
-	return tids.length;
+	return maxThreads;
+    }
+
+    // Allocate the CPUs and their run queues
+    private void initQueue( int cpuCount ) {
+	tcbs = new ConcurrentHashMap<Thread, TCB>( );
+	tcbsByTid = new ConcurrentHashMap<Integer, TCB>( );
+	cpus = new Cpu[Math.max( cpuCount, 1 )];
+	for ( int i = 0; i < cpus.length; i++ )
+	    cpus[i] = new Cpu( i );
+	initPolicies( );
+    }
+
+    // Give every CPU a fresh, empty run queue of the configured policy
+    private void initPolicies( ) {
+	for ( int i = 0; i < cpus.length; i++ )
+	    cpus[i].policy = newPolicy( );
+    }
+
+    private SchedulingPolicy newPolicy( ) {
+	if ( policyName.equals( "rr" ) )
+	    return new RoundRobinPolicy( timeSlice );
+	if ( policyName.equals( "stride" ) )
+	    return new StridePolicy( timeSlice );
+	if ( policyName.equals( "cfs" ) )
+	    return new CfsPolicy( targetLatency, minGranularity );
+	return new MlfqPolicy( timeSlice, LEVELS, agingThreshold, boostInterval );
     }
 
     public Scheduler( ) {
 	timeSlice = DEFAULT_TIME_SLICE;
-	queue = new Vector( );
+	initQueue( 1 );
 	initTid( DEFAULT_MAX_THREADS );
     }
 
     public Scheduler( int quantum ) {
 	timeSlice = quantum;
-	queue = new Vector( );
+	initQueue( 1 );
 	initTid( DEFAULT_MAX_THREADS );
     }
 
@@ -80,27 +202,272 @@ public class Scheduler extends Thread
     // A constructor to receive the max number of threads to be spawned
     public Scheduler( int quantum, int maxThreads ) {
 	timeSlice = quantum;
-	queue = new Vector( );
+	initQueue( 1 );
+	initTid( maxThreads );
+    }
+
+    // A constructor to simulate cpuCount processors
+    public Scheduler( int quantum, int maxThreads, int cpuCount ) {
+	timeSlice = quantum;
+	initQueue( cpuCount );
 	initTid( maxThreads );
     }
 
-    private void schedulerSleep( ) {
+    public int getCpuCount( ) {
+	return cpus.length;
+    }
+
+    // Select the scheduling policy: "mlfq", "rr", "stride" or "cfs".
+    // Call before start( ), while the run queues are still empty.
+    public void setPolicy( String name ) {
+	policyName = name;
+	initPolicies( );
+    }
+
+    // Configure MLFQ starvation control; call before start( )
+    public void setAging( int agingThreshold, int boostInterval ) {
+	this.agingThreshold = agingThreshold;
+	this.boostInterval = boostInterval;
+	initPolicies( );
+    }
+
+    // Configure the CFS slice: every runnable TCB should run once within
+    // targetLatency ms, in slices no shorter than minGranularity ms.
+    // Call before start( ).
+    public void setCfs( int targetLatency, int minGranularity ) {
+	this.targetLatency = targetLatency;
+	this.minGranularity = minGranularity;
+	initPolicies( );
+    }
+
+    // Print the metrics of every thread as it is reaped
+    public void setReportStats( boolean reportStats ) {
+	this.reportStats = reportStats;
+    }
+
+    private void schedulerSleep( int milliseconds ) {
 	try {
-	    Thread.sleep( timeSlice );
+	    Thread.sleep( milliseconds );
 	} catch ( InterruptedException e ) {
 	}
     }
 
+    // The queue a TCB belongs to on cpu
+    private SchedulingPolicy policyOf( Cpu cpu, TCB tcb ) {
+	return ( tcb.getRealTime( ) != null ) ? realtime : cpu.policy;
+    }
+
+    // Take the next TCB for cpu: a ready real-time TCB if there is one,
+    // else one from its own policy. An idle CPU steals a TCB from the
+    // busiest other CPU. Called with lock held.
+    private TCB pickNext( Cpu cpu ) {
+	TCB tcb = realtime.pickNext( );
+	if ( tcb == null )
+	    tcb = cpu.policy.pickNext( );
+	if ( tcb == null ) {
+	    Cpu victim = null;
+	    for ( int i = 0; i < cpus.length; i++ )
+		if ( cpus[i] != cpu && cpus[i].policy.size( ) > 0 &&
+		     ( victim == null ||
+		       cpus[i].policy.size( ) > victim.policy.size( ) ) )
+		    victim = cpus[i];
+	    if ( victim == null )
+		return null;
+	    cpu.policy.enqueue( victim.policy.steal( ) );
+	    tcb = cpu.policy.pickNext( );
+	}
+	return tcb;
+    }
+
+    // Block the dispatcher until some TCB becomes runnable on cpu, or can
+    // be stolen for it, instead of spinning on empty queues
+    private TCB waitForReady( Cpu cpu ) {
+	synchronized( lock ) {
+	    TCB tcb;
+	    while ( ( tcb = pickNext( cpu ) ) == null ) {
+		try {
+		    // sleep until notified, or until a real-time TCB's period begins
+		    long release = realtime.nextRelease( );
+		    if ( release == -1 )
+			lock.wait( );
+		    else
+			lock.wait( Math.max( release - System.currentTimeMillis( ), 1 ) );
+		} catch ( InterruptedException e ) {
+		}
+	    }
+	    return tcb;
+	}
+    }
+
+    // Give the current thread up to quantum ms. The slice ends early if
+    // the thread terminates, gives up the CPU, or if the policy wants to
+    // preempt it, and the time actually consumed is returned. The
+    // dispatcher parks between checks, so that TCB.releaseCpu( ) can
+    // wake it up at once.
+    private int runSlice( Cpu cpu, TCB tcb, int quantum ) {
+	int interval = Math.max( timeSlice / CHECKS_PER_SLICE, 1 );
+	long start = System.currentTimeMillis( );
+	int used = 0;
+	while ( used < quantum ) {
+	    LockSupport.parkNanos( this, Math.min( interval, quantum - used ) * 1000000L );
+	    used = ( int )( System.currentTimeMillis( ) - start );
+	    Thread thread = tcb.getThread( );
+	    if ( tcb.getTerminated( ) || thread == null || !thread.isAlive( ) )
+		break;
+	    if ( !tcb.getOnCpu( ) )
+		break; // it gave up the CPU
+	    synchronized( lock ) {
+		if ( realtime.shouldPreempt( tcb ) ||
+		     ( tcb.getRealTime( ) == null && cpu.policy.shouldPreempt( tcb ) ) )
+		    break;
+	    }
+	}
+	return used;
+    }
+
     // A modified addThread of p161 example
     public TCB addThread( Thread t ) {
-	t.setPriority( 2 );
-	TCB parentTcb = getMyTcb( ); // get my TCB and find my TID
+	return addThread( t, TCB.DEFAULT_WEIGHT );
+    }
+
+    // Add a thread with a share weight, as given to SysLib.exec( )
+    public TCB addThread( Thread t, int weight ) {
+	TCB tcb = createTcb( t );
+	if ( tcb == null )
+	    return null;
+	tcb.setWeight( weight );
+	register( t, tcb );
+	synchronized( lock ) {
+	    enqueue( tcb );
+	}
+	return tcb;
+    }
+
+    // Add many threads at once, as SysLib.execBatch( ) does: all their
+    // TCBs are created and enqueued under one critical section, with one
+    // line on the console for the batch. A null thread, or one for which
+    // no TID is left, gets a null TCB.
+    public TCB[] addThreads( Thread[] threads ) {
+	TCB[] added = new TCB[threads.length];
+	TCB parentTcb = getMyTcb( );
+	int first = -1, last = -1, count = 0;
+	synchronized( lock ) {
+	    for ( int i = 0; i < threads.length; i++ ) {
+		if ( threads[i] == null )
+		    continue;
+		added[i] = createTcb( threads[i], parentTcb, false );
+		if ( added[i] == null )
+		    continue;
+		register( threads[i], added[i] );
+		place( added[i] );
+		if ( first == -1 )
+		    first = added[i].getTid( );
+		last = added[i].getTid( );
+		count++;
+	    }
+	    if ( count > 0 )
+		wakeDispatchers( );
+	}
+	if ( count > 0 )
+	    System.err.println( "threadOS: " + count + " new threads (tid=" + first +
+				".." + last + " pid=" +
+				( ( parentTcb != null ) ? parentTcb.getTid( ) : -1 ) + ")" );
+	return added;
+    }
+
+    // Put a TCB that is not in any run queue into one, and let the
+    // dispatchers know. Called with lock held.
+    private void enqueue( TCB tcb ) {
+	place( tcb );
+	wakeDispatchers( );
+    }
+
+    // Put a TCB into the real-time queue, or else into that of the least
+    // loaded CPU. Called with lock held.
+    private void place( TCB tcb ) {
+	if ( tcb.getRealTime( ) != null )
+	    realtime.enqueue( tcb );
+	else {
+	    Cpu target = cpus[0];
+	    for ( int i = 1; i < cpus.length; i++ )
+		if ( cpus[i].policy.size( ) < target.policy.size( ) )
+		    target = cpus[i];
+	    target.policy.enqueue( tcb );
+	}
+	tcb.setScheduled( true );
+    }
+
+    private void wakeDispatchers( ) {
+	lock.notifyAll( ); // wake up idle dispatchers
+	// and the busy ones, to check at once whether a new TCB should preempt
+	for ( int i = 0; i < cpus.length; i++ )
+	    if ( cpus[i].dispatcher != null )
+		LockSupport.unpark( cpus[i].dispatcher );
+    }
+
+    // Make a sleeping or blocked TCB READY again. If a dispatcher still holds it,
+    // the dispatcher requeues it at the end of the slice; otherwise it
+    // goes back into a run queue now. Called with lock held.
+    private void makeReady( TCB tcb ) {
+	tcb.setState( TCB.READY );
+	if ( tcb.getRealTime( ) != null )
+	    realtime.resumed( tcb, System.currentTimeMillis( ) );
+	if ( !tcb.getScheduled( ) ) {
+	    tcb.readied( System.nanoTime( ) );
+	    enqueue( tcb );
+	}
+    }
+
+    // Add a thread to the real-time class: budget ms of CPU every period
+    // ms, each due deadline ms into its period. Admission control rejects
+    // the thread (returning null) if the admitted real-time TCBs together
+    // would need more than 100% of a CPU.
+    public TCB addRealTimeThread( Thread t, int budget, int period, int deadline ) {
+	if ( budget <= 0 || period <= 0 || deadline <= 0 || budget > deadline )
+	    return null;
+	RealTimeParams rt =
+	    new RealTimeParams( budget, period, deadline, System.currentTimeMillis( ) );
+	synchronized( lock ) {
+	    if ( utilization + rt.density( ) > 1.0 )
+		return null;
+	    TCB tcb = createTcb( t );
+	    if ( tcb == null )
+		return null;
+	    utilization += rt.density( );
+	    tcb.setRealTime( rt );
+	    register( t, tcb );
+	    enqueue( tcb );
+	    return tcb;
+	}
+    }
+
+    // Create a TCB for t, inheriting the caller's file descriptors;
+    // null if all thread IDs are in use
+    private TCB createTcb( Thread t ) {
+	return createTcb( t, getMyTcb( ), true ); // get my TCB and find my TID
+    }
+
+    // Create a TCB for t as a child of parentTcb (null for none), and
+    // count it among the parent's unjoined children
+    private TCB createTcb( Thread t, TCB parentTcb, boolean announce ) {
 	int pid = ( parentTcb != null ) ? parentTcb.getTid( ) : -1;
 	int tid = getNewTid( ); // get a new TID
 	if ( tid == -1)
 	    return null;
-	TCB tcb = new TCB( t, tid, pid ); // create a new TCB
-	queue.add( tcb );
+	TCB tcb = new TCB( t, tid, pid, announce ); // create a new TCB
+	if ( parentTcb != null )
+	    parentTcb.addChildren( 1 );
+
+	// the following if and for statements are for file system.
+	if ( parentTcb != null ) {
+	    for ( int i = 0; i < 32; i++ ) {
+		tcb.ftEnt[i] = parentTcb.ftEnt[i];
+		// JFM added 2012-12-01
+		// increment the count for any file table entries inherited from parent
+		if ( tcb.ftEnt[i] != null )
+		    tcb.ftEnt[i].count++;
+	    }
+	}
 	return tcb;
     }
 
@@ -108,55 +475,244 @@ public class Scheduler extends Thread
     // Removing the TCB of a terminating thread
     public boolean deleteThread( ) {
 	TCB tcb = getMyTcb( ); 
-	if ( tcb!= null )
-	    return tcb.setTerminated( );
-	else
+	if ( tcb == null )
 	    return false;
+	else {
+	    // JFM added 2012-12-01
+	    // if any file table entries are still open, decrement their count
+	    for ( int i = 3; i < 32; i++ )
+		if ( tcb.ftEnt[i] != null )
+		    // JFM changed 2012-12-13
+		    // close any open file descriptors rather than decrement the counts
+		    // to ensure that system-wide file table entries are removed
+		    // when no longer needed
+		    SysLib.close( i );
+	    tcb.completed( System.nanoTime( ) );
+	    boolean terminated, queued = false;
+	    synchronized( lock ) {
+		terminated = tcb.setTerminated( );
+		// exit( ) skips the syscall gate, so the caller may be waiting
+		// in a run queue rather than holding a CPU
+		if ( tcb.getScheduled( ) && !tcb.getOnCpu( ) )
+		    queued = unqueue( tcb );
+	    }
+	    if ( queued )
+		reap( tcb ); // no dispatcher will see it again
+	    else
+		tcb.releaseCpu( ); // end the slice now rather than at the next check
+	    return terminated;
+	}
+    }
+
+    // Take tcb out of whichever run queue holds it; whether one did. Only
+    // a real-time TCB may be looked up in the EDF queue, whose order
+    // reads its RealTimeParams. Called with lock held.
+    private boolean unqueue( TCB tcb ) {
+	boolean queued = false;
+	if ( tcb.getRealTime( ) != null )
+	    queued = realtime.remove( tcb );
+	else
+	    for ( int i = 0; !queued && i < cpus.length; i++ )
+		queued = cpus[i].policy.remove( tcb );
+	if ( queued )
+	    tcb.setScheduled( false );
+	return queued;
+    }
+
+    // Fill stats with the scheduling metrics of thread tid, or of the
+    // calling thread if tid is -1 (see TCB.getStats( )). False if there
+    // is no such live thread.
+    public boolean getStats( int tid, long[] stats ) {
+	TCB tcb = ( tid == -1 ) ? getMyTcb( ) : getTcb( tid );
+	return tcb != null && tcb.getStats( stats );
     }
 
+    // The TCB of live thread tid, or null
+    public TCB getTcb( int tid ) {
+	TCB tcb = tcbsByTid.get( tid );
+	return ( tcb != null && !tcb.getTerminated( ) ) ? tcb : null;
+    }
+
+    private void register( Thread t, TCB tcb ) {
+	tcbs.put( t, tcb );
+	tcbsByTid.put( tcb.getTid( ), tcb );
+    }
+
+    // Reclaim the TCB of a thread that has exited: drop the disk requests
+    // it never reaped, drop it from the TCB map, release its real-time
+    // share and return its TID. Nothing refers to the TCB or its thread
+    // afterwards. Its files were closed on its own thread, by exit( ) or
+    // as its run( ) returned (see Kernel.newUserThread( )), as a
+    // dispatcher must not wait on the file system.
+    private void reap( TCB tcb ) {
+	tcb.clearIo( );
+	Thread thread = tcb.getThread( );
+	if ( thread != null )
+	    tcbs.remove( thread, tcb );
+	tcbsByTid.remove( tcb.getTid( ), tcb );
+	tcb.completed( System.nanoTime( ) );
+	if ( reportStats )
+	    reportStats( tcb );
+	RealTimeParams rt = tcb.getRealTime( );
+	if ( rt != null ) {
+	    synchronized( lock ) {
+		utilization -= rt.density( );
+	    }
+	    System.err.println( "threadOS: real-time thread tid=" +
+				tcb.getTid( ) + " ran " +
+				rt.getJobs( ) + " periods, missed " +
+				rt.getMisses( ) + " deadlines" );
+	}
+	returnTid( tcb.getTid( ) );
+    }
+
+    // Print the metrics of a reaped TCB, in ms
+    private void reportStats( TCB tcb ) {
+	long[] stats = new long[TCB.STATS];
+	tcb.getStats( stats );
+	long submit = stats[TCB.STAT_SUBMIT];
+	long firstRun = stats[TCB.STAT_FIRST_RUN];
+	System.err.println( "threadOS: thread tid=" + tcb.getTid( ) +
+			    " response=" + ( ( firstRun == 0 ) ? 0 : ( firstRun - submit ) / 1000000 ) +
+			    "ms turnaround=" + ( stats[TCB.STAT_COMPLETION] - submit ) / 1000000 +
+			    "ms run=" + stats[TCB.STAT_RUN] / 1000000 +
+			    "ms ready=" + stats[TCB.STAT_READY] / 1000000 +
+			    "ms slices=" + stats[TCB.STAT_DISPATCHES] +
+			    " promotions=" + stats[TCB.STAT_PROMOTIONS] +
+			    " boosts=" + stats[TCB.STAT_BOOSTS] );
+    }
+
+    // Called by a thread about to wait for an event (a child's exit, the
+    // disk, a busy file). It becomes BLOCKED and gives up its CPU, and it
+    // gets no quanta until it calls unblock( ) once the event has come.
+    public void block( ) {
+	block( false );
+    }
+
+    // The same, telling whether the event is a disk transfer; the policy
+    // sees this through TCB.getIoBlocked( ) when the slice is accounted
+    public void block( boolean io ) {
+	TCB tcb = getMyTcb( );
+	if ( tcb == null )
+	    return;
+	synchronized( lock ) {
+	    tcb.setState( TCB.BLOCKED );
+	    tcb.setIoBlocked( io );
+	    tcb.releaseCpu( );
+	}
+    }
+
+    // Called by a blocked thread once its event has come: it goes back
+    // into a run queue and waits there to be dispatched
+    public void unblock( ) {
+	TCB tcb = getMyTcb( );
+	if ( tcb == null )
+	    return;
+	synchronized( lock ) {
+	    makeReady( tcb );
+	}
+	tcb.waitForCpu( );
+    }
+
+    // Give up the rest of the caller's slice. It stays READY, so the
+    // dispatcher requeues it, and it returns once dispatched again.
+    public void yieldThread( ) {
+	TCB tcb = getMyTcb( );
+	if ( tcb == null )
+	    return;
+	synchronized( lock ) {
+	    tcb.releaseCpu( );
+	}
+	tcb.waitForCpu( );
+    }
+
+    // Put the calling thread to sleep for milliseconds. A ThreadOS thread
+    // gives up its CPU and leaves the run queues for the timer wheel, and
+    // returns once it has been woken up and dispatched again.
     public void sleepThread( int milliseconds ) {
-	try {
-	    sleep( milliseconds );
-	} catch ( InterruptedException e ) { }
+	TCB tcb = getMyTcb( );
+	if ( tcb == null || milliseconds <= 0 ) {
+	    try {
+		sleep( milliseconds );
+	    } catch ( InterruptedException e ) { }
+	    return;
+	}
+	synchronized( lock ) {
+	    tcb.setState( TCB.SLEEPING );
+	    tcb.releaseCpu( ); // the dispatcher ends the slice
+	    timers.add( tcb, System.currentTimeMillis( ) + milliseconds );
+	    lock.notifyAll( ); // start the timer
+	}
+	tcb.waitForCpu( );
     }
     
     // A modified run of p161
+    // The Scheduler thread starts the other CPUs and dispatches CPU 0
     public void run( ) {
+	for ( int i = 1; i < cpus.length; i++ )
+	    cpus[i].start( );
+	new Ticker( ).start( );
+	dispatch( cpus[0] );
+    }
+
+    // The dispatch loop of one CPU
+    private void dispatch( Cpu cpu ) {
 	Thread current = null;
+	cpu.dispatcher = Thread.currentThread( );
 
-	this.setPriority( 6 );
-	
 	while ( true ) {
 	    try {
 		// get the next TCB and its thrad
-		if ( queue.size( ) == 0 )
-		    continue;
-		TCB currentTCB = (TCB)queue.firstElement( );
-		if ( currentTCB.getTerminated( ) == true ) {
-		    queue.remove( currentTCB );
-		    returnTid( currentTCB.getTid( ) );
+		TCB currentTCB = waitForReady( cpu );
+		current = currentTCB.getThread( );
+		if ( currentTCB.getTerminated( ) == true ||
+		     current == null ||
+		     current.getState( ) == Thread.State.TERMINATED ) {
+		    // it exited after being requeued
+		    reap( currentTCB );
 		    continue;
 		}
-		current = currentTCB.getThread( );
-		if ( current != null ) {
-		    if ( current.isAlive( ) )
-			current.setPriority( 4 );
-		    else {
-			// Spawn must be controlled by Scheduler
-			// Scheduler must start a new thread
-			current.start( ); 
-			current.setPriority( 4 );
+		SchedulingPolicy policy = policyOf( cpu, currentTCB );
+		int quantum;
+		synchronized( lock ) {
+		    if ( currentTCB.getState( ) != TCB.READY ) {
+			// it went to sleep or blocked after being requeued;
+			// it comes back when it is woken up
+			currentTCB.setScheduled( false );
+			continue;
 		    }
+		    quantum = policy.quantum( currentTCB );
+		    // Dispatch: this TCB alone may pass its next syscall boundary
+		    currentTCB.dispatched( System.nanoTime( ) );
+		    currentTCB.setOnCpu( true );
+		}
+		if ( current.getState( ) == Thread.State.NEW ) {
+		    // Spawn must be controlled by Scheduler
+		    // Scheduler must start a new thread
+		    current.start( ); 
 		}
 		
-		schedulerSleep( );
+		int used = runSlice( cpu, currentTCB, quantum );
 		// System.out.println("* * * Context Switch * * * ");
 
-		synchronized ( queue ) {
-		    if ( current != null && current.isAlive( ) )
-			current.setPriority( 2 );
-		    queue.remove( currentTCB ); // rotate this TCB to the end
-		    queue.add( currentTCB );
+		currentTCB.setOnCpu( false ); // preempt at its next syscall
+		currentTCB.descheduled( System.nanoTime( ) );
+		if ( currentTCB.getTerminated( ) || !current.isAlive( ) ) {
+		    // it exited during this slice: it is in no run queue, so
+		    // it can be reclaimed now rather than when next picked
+		    reap( currentTCB );
+		    continue;
+		}
+		synchronized ( lock ) {
+		    policy.account( currentTCB, used,
+				    used >= quantum && current.isAlive( ) );
+		    currentTCB.setIoBlocked( false );
+		    if ( currentTCB.getState( ) == TCB.READY )
+			policy.enqueue( currentTCB ); // back into the run queue
+		    else
+			currentTCB.setScheduled( false ); // asleep or blocked
+		    if ( cpu.policy.size( ) > 1 )
+			lock.notifyAll( ); // there is work for idle CPUs to steal
 		}
 	    } catch ( NullPointerException e3 ) { };
 	}
@@ -0,0 +1,34 @@
+// The policy half of the Scheduler: one instance owns the run queue of one
+// CPU and decides which TCB runs next, for how long, and what a finished
+// slice means for that TCB. The Scheduler does the mechanism (dispatching,
+// preempting, stealing between CPUs) and calls every method here with its
+// run queue lock held, so implementations need no locking of their own.
+public interface SchedulingPolicy {
+
+    // Make tcb runnable on this queue: a new TCB, one whose slice ended,
+    // or one stolen from another CPU
+    void enqueue( TCB tcb );
+
+    // Remove and return the TCB to run next, or null if the queue is empty
+    TCB pickNext( );
+
+    // Length in ms of the slice tcb gets now that it has been picked
+    int quantum( TCB tcb );
+
+    // Charge tcb for a slice of used ms; expired tells whether it ran for
+    // the whole quantum. tcb is enqueued again afterwards if still alive.
+    void account( TCB tcb, int used, boolean expired );
+
+    // Whether a queued TCB should take the CPU away from running now
+    boolean shouldPreempt( TCB running );
+
+    // Remove and return a TCB that an idle CPU may take over, or null
+    TCB steal( );
+
+    // Take tcb out of this queue, e.g. because it exited while waiting for
+    // its turn; whether it was queued here
+    boolean remove( TCB tcb );
+
+    // Number of queued TCBs
+    int size( );
+}
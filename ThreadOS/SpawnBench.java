@@ -0,0 +1,98 @@
+import java.io.*;
+
+/**
+ * Spawns many PingPong-style programs through SysLib.execBatch( ) and
+ * reports the spawn latency and memory cost per program. Every program
+ * sleeps in a loop with SysLib.sleep( ) like PingPong, so each one
+ * blocks in the kernel while the others are being spawned and the memory
+ * figure covers live, blocked threads. Boot with
+ * -Djdk.tracePinnedThreads=full on a JVM with virtual threads to check
+ * that none of them pins its carrier.
+ *
+ * To run: java SpawnBench [programs] [platform|virtual]
+ *         (programs must stay below -DthreadOS.maxThreads, 10000 by
+ *         default)
+ */
+public class SpawnBench extends Thread {
+
+    private static int programs;
+
+    // A PingPong without output: sleep a few rounds, then exit
+    public static class Pong extends Thread {
+	public Pong( ) {
+	}
+
+	public void run( ) {
+	    for ( int j = 0; j < 10; j++ )
+		SysLib.sleep( 200 );
+	    SysLib.exit( );
+	}
+    }
+
+    // Resident set size in KB, or -1 where /proc is not available
+    private static long residentKb( ) {
+	try {
+	    BufferedReader status =
+		new BufferedReader( new FileReader( "/proc/self/status" ) );
+	    try {
+		String line;
+		while ( ( line = status.readLine( ) ) != null )
+		    if ( line.startsWith( "VmRSS:" ) )
+			return Long.parseLong( line.replaceAll( "[^0-9]", "" ) );
+	    } finally {
+		status.close( );
+	    }
+	} catch ( IOException e ) {
+	}
+	return -1;
+    }
+
+    public SpawnBench( ) {
+    }
+
+    public void run( ) {
+	String batch[][] = new String[programs][];
+	for ( int i = 0; i < programs; i++ )
+	    batch[i] = new String[] { "SpawnBench$Pong" };
+	System.gc( );
+	long rssStart = residentKb( );
+
+	long start = System.nanoTime( );
+	int tids[] = SysLib.execBatch( batch );
+	long spawn = System.nanoTime( ) - start;
+	long rss = residentKb( ) - rssStart;
+
+	int spawned = 0;
+	for ( int i = 0; i < tids.length; i++ )
+	    if ( tids[i] >= 0 )
+		spawned++;
+	SysLib.joinAll( );
+
+	SysLib.cout( String.format( "%s threads: %d of %d programs spawned, %.1f us/spawn, %s\n",
+				    Kernel.usingVirtualThreads( ) ? "virtual" : "platform",
+				    spawned, programs,
+				    spawn / 1000.0 / Math.max( spawned, 1 ),
+				    ( rssStart < 0 ) ? "RSS unknown" :
+				    String.format( "%.1f KB RSS/program",
+						   ( double )rss / Math.max( spawned, 1 ) ) ) );
+	System.exit( 0 );
+    }
+
+    public static void main( String args[] ) throws Exception {
+	programs = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : 5000;
+	int maxThreads = Integer.getInteger( "threadOS.maxThreads",
+					     Scheduler.DEFAULT_MAX_THREADS );
+	// this program and its children share the thread limit
+	if ( programs >= maxThreads ) {
+	    System.err.println( "SpawnBench: at most " + ( maxThreads - 1 ) +
+				" programs with -DthreadOS.maxThreads=" + maxThreads );
+	    System.exit( 1 );
+	}
+	if ( args.length > 1 )
+	    System.setProperty( "threadOS.virtualThreads",
+				"" + args[1].equals( "virtual" ) );
+	SysLib.boot( );
+	SysLib.exec( new String[] { "SpawnBench" } );
+	Thread.currentThread( ).join( ); // SpawnBench.run( ) exits
+    }
+}
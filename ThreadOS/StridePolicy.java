@@ -0,0 +1,65 @@
+import java.util.*;
+
+// Stride scheduling: deterministic proportional share. A TCB's weight is
+// its number of tickets and its stride is STRIDE1 / tickets. Every slice
+// advances its pass by its stride, scaled to the part of the quantum it
+// actually used, and the TCB with the lowest pass runs next. Over time
+// each TCB gets CPU in proportion to its weight.
+public class StridePolicy implements SchedulingPolicy {
+    static final long STRIDE1 = 1 << 20;
+
+    private TreeSet<TCB> queue = new TreeSet<TCB>( new Comparator<TCB>( ) {
+	    public int compare( TCB a, TCB b ) {
+		if ( a.getPass( ) != b.getPass( ) )
+		    return ( a.getPass( ) < b.getPass( ) ) ? -1 : 1;
+		return a.getTid( ) - b.getTid( );
+	    }
+	} );
+    private int timeSlice;
+    private long globalPass = 0; // pass of the TCB picked last
+
+    public StridePolicy( int timeSlice ) {
+	this.timeSlice = timeSlice;
+    }
+
+    // A TCB joining the queue starts no further back than the current
+    // pass, so it cannot claim CPU time for the period it was away
+    public void enqueue( TCB tcb ) {
+	if ( tcb.getPass( ) < globalPass )
+	    tcb.setPass( globalPass );
+	queue.add( tcb );
+    }
+
+    public TCB pickNext( ) {
+	TCB tcb = queue.pollFirst( );
+	if ( tcb != null )
+	    globalPass = tcb.getPass( );
+	return tcb;
+    }
+
+    public int quantum( TCB tcb ) {
+	return timeSlice;
+    }
+
+    public void account( TCB tcb, int used, boolean expired ) {
+	long stride = STRIDE1 / Math.max( tcb.getWeight( ), 1 );
+	tcb.setPass( tcb.getPass( ) + stride * used / timeSlice );
+    }
+
+    public boolean shouldPreempt( TCB running ) {
+	return false;
+    }
+
+    // Give away the TCB that is furthest from its next turn
+    public TCB steal( ) {
+	return queue.pollLast( );
+    }
+
+    public boolean remove( TCB tcb ) {
+	return queue.remove( tcb );
+    }
+
+    public int size( ) {
+	return queue.size( );
+    }
+}
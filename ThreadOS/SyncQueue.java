@@ -0,0 +1,103 @@
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+// Monitor-style wait queues for the kernel: threads sleep on a condition
+// (a disk event, or the TID of the parent they wait on) until another
+// thread wakes them up with an ID. A condition's QueueNode exists only
+// while somebody sleeps on it or an ID posted to it is pending, so a
+// queue sized for every possible TID costs nothing until it is used.
+public class SyncQueue {
+    private HashMap<Integer, QueueNode> queue = new HashMap<Integer, QueueNode>( );
+    private final ReentrantLock lock = new ReentrantLock( );
+    private int condMax;
+    private final int COND_MAX = 10;
+    private final int NO_PID = -1;
+
+    public SyncQueue( ) {
+	condMax = COND_MAX;
+    }
+
+    public SyncQueue( int condMax ) {
+	this.condMax = condMax;
+    }
+
+    // The node of condition, created if create is set; lock held
+    private QueueNode node( int condition, boolean create ) {
+	QueueNode node = queue.get( condition );
+	if ( node == null && create ) {
+	    node = new QueueNode( lock.newCondition( ) );
+	    queue.put( condition, node );
+	}
+	return node;
+    }
+
+    // Drop the node of condition if nothing is left in it; lock held
+    private void release( int condition, QueueNode node ) {
+	if ( node.idle( ) )
+	    queue.remove( condition );
+    }
+
+    // Sleep on condition until woken up, and return the waker's ID
+    int enqueueAndSleep( int condition ) {
+	return enqueueAndSleep( condition, 1 );
+    }
+
+    // Sleep on condition until count wakeups have come, and return the
+    // last waker's ID
+    int enqueueAndSleep( int condition, int count ) {
+	if ( condition < 0 || condition >= condMax )
+	    return NO_PID;
+	lock.lock( );
+	try {
+	    QueueNode node = node( condition, true );
+	    int pid = node.sleep( count );
+	    release( condition, node );
+	    return pid;
+	} finally {
+	    lock.unlock( );
+	}
+    }
+
+    // Sleep on condition until the wakeup from tid itself has come;
+    // wakeups from other IDs stay queued for other sleeps
+    int enqueueAndSleepFor( int condition, int tid ) {
+	if ( condition < 0 || condition >= condMax )
+	    return NO_PID;
+	lock.lock( );
+	try {
+	    QueueNode node = node( condition, true );
+	    int pid = node.sleepFor( tid );
+	    release( condition, node );
+	    return pid;
+	} finally {
+	    lock.unlock( );
+	}
+    }
+
+    // Whether a wakeup from tid is queued on condition
+    boolean posted( int condition, int tid ) {
+	lock.lock( );
+	try {
+	    QueueNode node = node( condition, false );
+	    return node != null && node.posted( tid );
+	} finally {
+	    lock.unlock( );
+	}
+    }
+
+    // Wake up a thread sleeping on condition, passing it tid
+    void dequeueAndWakeup( int condition, int tid ) {
+	if ( condition < 0 || condition >= condMax )
+	    return;
+	lock.lock( );
+	try {
+	    node( condition, true ).wakeup( tid );
+	} finally {
+	    lock.unlock( );
+	}
+    }
+
+    void dequeueAndWakeup( int condition ) {
+	dequeueAndWakeup( condition, 0 );
+    }
+}
@@ -1,4 +1,5 @@
 import java.util.*;
+import java.util.concurrent.atomic.*;
 
 public class SysLib {
 
@@ -116,11 +117,100 @@ public class SysLib {
 				 Kernel.EXEC, 0, args );
     }
 
+    // Spawn a program with a share weight: under the stride policy it gets
+    // CPU time in proportion to weight (TCB.DEFAULT_WEIGHT is 100)
+    public static int exec( String args[], int weight ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.EXEC, weight, args );
+    }
+
+    // Spawn a program in the real-time class: it gets budget ms of CPU in
+    // every period ms, due deadline ms into the period, and preempts all
+    // time-sharing programs. Returns ERROR if admission control finds
+    // that the real-time programs would need more than 100% of a CPU.
+    public static int exec( String args[], int budget, int period, int deadline ) {
+        Object execArgs[] = { args, new int[] { budget, period, deadline } };
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.EXECRT, 0, execArgs );
+    }
+
+    // Fill stats (at least TCB.STATS longs) with the kernel's scheduling
+    // metrics for thread tid, or for the caller if tid is -1. Indices are
+    // the TCB.STAT_ constants; timestamps and durations are in ns, and the
+    // rest are counts of slices, aging promotions and periodic boosts.
+    public static int stats( int tid, long stats[] ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.STATS, tid, stats );
+    }
+
+    // Fill stats (at least Disk.STATS longs) with the disk's busy and idle
+    // time in ns, its number of requests, the tracks its seeks crossed, the
+    // ns requests spent queued, the blocks its syncs forced out to DISK
+    // and the blocks it read or wrote, indexed by the Disk.STAT_ constants
+    public static int diskStats( long stats[] ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.DSTATS, 0, stats );
+    }
+
+    // Give up the rest of this quantum; the caller goes back to its run
+    // queue and returns when it is dispatched again
+    public static int yield( ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.YIELD, 0, null );
+    }
+
+    // Sleep until futexWake( ) is called on word, but only if word still
+    // holds expected; otherwise return ERROR at once. Programs sharing
+    // word build locks on it with compareAndSet( ) and call this only to
+    // wait, instead of polling with sleep( ).
+    public static int futexWait( AtomicInteger word, int expected ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.FWAIT, expected, word );
+    }
+
+    // Wake up to n threads sleeping on word; returns how many woke up
+    public static int futexWake( AtomicInteger word, int n ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.FWAKE, n, word );
+    }
+
+    // Load the class of a program afresh, e.g. after recompiling it, so
+    // that the next exec( ) of className runs the new code
+    public static int reload( String className ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.RELOAD, 0, className );
+    }
+
+    // Spawn every program in programs (each an args array as for exec( ))
+    // in one kernel entry, and return their TIDs in the same order, with
+    // ERROR for any program that could not be spawned
+    public static int[] execBatch( String programs[][] ) {
+        int tids[] = new int[programs.length];
+        Object batch[] = { programs, tids };
+        Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+			  Kernel.EXECB, 0, batch );
+        return tids;
+    }
+
     public static int join( ) {
         return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
 				 Kernel.WAIT, 0, null );
     }
 
+    // Wait until every child not joined yet has exited, waking up once
+    // for all of them; returns how many children that was
+    public static int joinAll( ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.JOINALL, 0, null );
+    }
+
+    // Wait for child tid in particular; returns tid, or -1 if it is not
+    // a child of the caller or has been joined already
+    public static int waitpid( int tid ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.WAITPID, tid, null );
+    }
+
     public static int boot( ) {
 	return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
 				 Kernel.BOOT, 0, null );
@@ -166,6 +256,50 @@ public class SysLib {
 				 Kernel.RAWWRITE, blkNumber, b );
     }
 
+    // Read every block blkNumbers[i] into b[i] in a single disk command.
+    // The disk sorts the blocks and seeks once per run of contiguous
+    // ones, so a run costs one seek and a transfer per block.
+    public static int rawreadv( int blkNumbers[], byte[][] b ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.RAWREADV, 0,
+				 new Object[] { blkNumbers, b } );
+    }
+
+    // The same for writing every b[i] to block blkNumbers[i]
+    public static int rawwritev( int blkNumbers[], byte[][] b ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.RAWWRITEV, 0,
+				 new Object[] { blkNumbers, b } );
+    }
+
+    // Queue a read of block blkNumber into b and return at once with a
+    // handle for ioWait( ) or ioPoll( ), or -1 if there is no such block.
+    // b must not be touched until the read has completed.
+    public static int rawreadAsync( int blkNumber, byte[] b ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.AREAD, blkNumber, b );
+    }
+
+    // The same for a write of b to block blkNumber
+    public static int rawwriteAsync( int blkNumber, byte[] b ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.AWRITE, blkNumber, b );
+    }
+
+    // Wait until every one of handles has completed; -1 if any of them
+    // is not the caller's or has been reaped already
+    public static int ioWait( int... handles ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.IOWAIT, 0, handles );
+    }
+
+    // 1 if handle has completed, which reaps it, 0 if it has not yet, or
+    // -1 if it is not one of the caller's
+    public static int ioPoll( int handle ) {
+        return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
+				 Kernel.IOPOLL, handle, null );
+    }
+
     public static int sync( ) {
         return Kernel.interrupt( Kernel.INTERRUPT_SOFTWARE,
 				 Kernel.SYNC, 0, null );
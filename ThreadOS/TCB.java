@@ -1,22 +1,86 @@
+import java.util.*;
+import java.util.concurrent.locks.*;
+
 public class TCB {
     private Thread thread = null;
     private int tid = 0;
     private int pid = 0;
     private boolean terminated = false;
-    private int sleepTime = 0;
+    private volatile boolean onCpu = false; // dispatched by the scheduler
+    private volatile Thread dispatcher = null; // the CPU that dispatched it
+    private int level = 0;                  // feedback queue level
+    private long enqueueTime = 0;           // when it last entered a run queue
+    private int promotions = 0;             // levels gained through aging
+    private int boosts = 0;                 // periodic boosts to level 0
+    private int weight = DEFAULT_WEIGHT;    // share weight (stride tickets)
+    private long pass = 0;                  // stride scheduling pass value
+    private long vruntime = 0;              // CFS virtual runtime in us
+    private RealTimeParams realTime = null; // null for time-sharing TCBs
+    private int state = READY;              // READY, SLEEPING or BLOCKED
+    private boolean scheduled = true;       // in a run queue or on a CPU
+    private long wakeTick = 0;              // timer wheel tick to wake at
+    private boolean ioBlocked = false;      // its slice ended waiting for the disk
+    private int children = 0;               // children not joined yet
+    private int kernelDepth = 0;            // syscalls it is inside of
+
+    // Its links in the RunQueue it waits in, if any. Only RunQueue
+    // touches them, with the Scheduler's lock held.
+    RunQueue runQueue = null;
+    TCB runPrev = null;
+    TCB runNext = null;
+
+    // Raw disk requests it issued asynchronously and has not reaped yet,
+    // by handle; allocated on its first asynchronous request
+    private HashMap<Integer, Disk.Request> ioRequests = null;
+    private int nextIoHandle = 0;
+
+    // Scheduling metrics, all System.nanoTime( ) based. They are plain
+    // longs updated in place, so that a context switch allocates nothing.
+    private long submitTime = 0;      // when the TCB was created
+    private long firstRunTime = 0;    // first dispatch, 0 until then
+    private long completionTime = 0;  // exit or reap, 0 until then
+    private long runTime = 0;         // total time on a CPU
+    private long readyTime = 0;       // total time waiting in a run queue
+    private long dispatches = 0;      // number of slices received
+    private long lastSwitch = 0;      // when it last got on or off a CPU
+    public static final int DEFAULT_WEIGHT = 100;
+
+    // Scheduling states. Only a READY TCB is given a CPU; the others are
+    // left out of the run queues until the scheduler makes them READY.
+    public static final int READY    = 0;
+    public static final int SLEEPING = 1; // on the timer wheel
+    public static final int BLOCKED  = 2; // waiting for join, I/O or a file
+
+    // Layout of the array filled by getStats( ) and SysLib.stats( )
+    public static final int STAT_SUBMIT     = 0; // ns timestamps
+    public static final int STAT_FIRST_RUN  = 1;
+    public static final int STAT_COMPLETION = 2;
+    public static final int STAT_RUN        = 3; // ns durations
+    public static final int STAT_READY      = 4;
+    public static final int STAT_DISPATCHES = 5; // counts
+    public static final int STAT_PROMOTIONS = 6; // MLFQ levels gained by aging
+    public static final int STAT_BOOSTS     = 7; // MLFQ periodic boosts
+    public static final int STATS           = 8;
     public FileTableEntry[] ftEnt = null; // added for the file system
 
     public TCB( Thread newThread, int myTid, int parentTid ) {
+	this( newThread, myTid, parentTid, true );
+    }
+
+    // announce tells whether to print the new thread on the console
+    public TCB( Thread newThread, int myTid, int parentTid, boolean announce ) {
 	thread = newThread;
 	tid = myTid;
 	pid = parentTid;
 	terminated = false;
+	submitTime = lastSwitch = System.nanoTime( );
 
 	ftEnt = new FileTableEntry[32];    // added for the file system
 
-	System.err.println( "threadOS: a new thread (thread=" + thread + 
-			    " tid=" + tid + 
-			    " pid=" + pid + ")");
+	if ( announce )
+	    System.err.println( "threadOS: a new thread (thread=" + thread + 
+				" tid=" + tid + 
+				" pid=" + pid + ")");
     }
 
     public synchronized Thread getThread( ) {
@@ -40,6 +104,231 @@ public class TCB {
 	return terminated;
     }
 
+    public synchronized int getLevel( ) {
+	return level;
+    }
+
+    public synchronized void setLevel( int newLevel ) {
+	level = newLevel;
+    }
+
+    public synchronized long getEnqueueTime( ) {
+	return enqueueTime;
+    }
+
+    public synchronized void setEnqueueTime( long time ) {
+	enqueueTime = time;
+    }
+
+    public synchronized int getPromotions( ) {
+	return promotions;
+    }
+
+    public synchronized void promoted( ) {
+	promotions++;
+    }
+
+    public synchronized int getBoosts( ) {
+	return boosts;
+    }
+
+    public synchronized void boosted( ) {
+	boosts++;
+    }
+
+    public synchronized int getWeight( ) {
+	return weight;
+    }
+
+    public synchronized void setWeight( int newWeight ) {
+	weight = ( newWeight > 0 ) ? newWeight : DEFAULT_WEIGHT;
+    }
+
+    public synchronized long getPass( ) {
+	return pass;
+    }
+
+    public synchronized void setPass( long newPass ) {
+	pass = newPass;
+    }
+
+    public synchronized long getVruntime( ) {
+	return vruntime;
+    }
+
+    public synchronized void setVruntime( long newVruntime ) {
+	vruntime = newVruntime;
+    }
+
+    public synchronized RealTimeParams getRealTime( ) {
+	return realTime;
+    }
+
+    public synchronized void setRealTime( RealTimeParams params ) {
+	realTime = params;
+    }
+
+    public synchronized int getState( ) {
+	return state;
+    }
+
+    public synchronized void setState( int newState ) {
+	state = newState;
+    }
+
+    public synchronized boolean getScheduled( ) {
+	return scheduled;
+    }
+
+    public synchronized void setScheduled( boolean inQueue ) {
+	scheduled = inQueue;
+    }
+
+    public synchronized long getWakeTick( ) {
+	return wakeTick;
+    }
+
+    public synchronized void setWakeTick( long tick ) {
+	wakeTick = tick;
+    }
+
+    public synchronized boolean getIoBlocked( ) {
+	return ioBlocked;
+    }
+
+    public synchronized void setIoBlocked( boolean io ) {
+	ioBlocked = io;
+    }
+
+    public synchronized int getChildren( ) {
+	return children;
+    }
+
+    // Count count more children as spawned (positive) or joined (negative)
+    public synchronized void addChildren( int count ) {
+	children += count;
+    }
+
+    // The TCB becomes runnable again at time now, after waiting outside
+    // the run queues; that wait does not count as ready time
+    public synchronized void readied( long now ) {
+	lastSwitch = now;
+    }
+
+    // The scheduler gives this TCB a CPU at time now
+    public synchronized void dispatched( long now ) {
+	if ( firstRunTime == 0 )
+	    firstRunTime = now;
+	readyTime += now - lastSwitch;
+	dispatches++;
+	lastSwitch = now;
+    }
+
+    // The scheduler takes the CPU back at time now. A thread that has
+    // already exited stopped running at its completion time.
+    public synchronized void descheduled( long now ) {
+	long end = ( completionTime != 0 && completionTime < now ) ? completionTime : now;
+	if ( end > lastSwitch )
+	    runTime += end - lastSwitch;
+	lastSwitch = now;
+    }
+
+    // The thread exits at time now; only the first call counts
+    public synchronized void completed( long now ) {
+	if ( completionTime == 0 )
+	    completionTime = now;
+    }
+
+    // Copy the metrics into stats, indexed by the STAT_ constants. The
+    // time on the CPU so far counts for a thread that is running now.
+    public synchronized boolean getStats( long[] stats ) {
+	if ( stats == null || stats.length < STATS )
+	    return false;
+	long run = runTime;
+	if ( onCpu && completionTime == 0 )
+	    run += System.nanoTime( ) - lastSwitch;
+	stats[STAT_SUBMIT] = submitTime;
+	stats[STAT_FIRST_RUN] = firstRunTime;
+	stats[STAT_COMPLETION] = completionTime;
+	stats[STAT_RUN] = run;
+	stats[STAT_READY] = readyTime;
+	stats[STAT_DISPATCHES] = dispatches;
+	stats[STAT_PROMOTIONS] = promotions;
+	stats[STAT_BOOSTS] = boosts;
+	return true;
+    }
+
+    // Dispatch this thread, or take the CPU away from it. Called by the
+    // dispatcher thread of the CPU.
+    public void setOnCpu( boolean running ) {
+	onCpu = running;
+	if ( onCpu ) {
+	    dispatcher = Thread.currentThread( );
+	    LockSupport.unpark( thread );
+	}
+    }
+
+    // Called by this thread to give up its CPU before its slice is over;
+    // the dispatcher is woken up to end the slice at once
+    public void releaseCpu( ) {
+	onCpu = false;
+	Thread cpu = dispatcher;
+	if ( cpu != null )
+	    LockSupport.unpark( cpu );
+    }
+
+    public boolean getOnCpu( ) {
+	return onCpu;
+    }
+
+    // Park the calling thread until the scheduler dispatches this TCB
+    public void waitForCpu( ) {
+	while ( !onCpu )
+	    LockSupport.park( this );
+    }
+
+    // Called by this thread as it enters a syscall; how many it is now
+    // inside of, 1 unless the kernel made this one inside another. Only
+    // its own thread touches the count.
+    public int enterKernel( ) {
+	return ++kernelDepth;
+    }
+
+    public void leaveKernel( ) {
+	kernelDepth--;
+    }
+
+    // Whether this thread is in a syscall the kernel made inside another
+    public boolean inNestedSyscall( ) {
+	return kernelDepth > 1;
+    }
+
+    // Register an asynchronous disk request and return its handle
+    public synchronized int addIo( Disk.Request request ) {
+	if ( ioRequests == null )
+	    ioRequests = new HashMap<Integer, Disk.Request>( );
+	int handle = nextIoHandle;
+	nextIoHandle = ( nextIoHandle + 1 ) & Integer.MAX_VALUE;
+	ioRequests.put( handle, request );
+	return handle;
+    }
+
+    // The request behind a handle of this TCB's, or null
+    public synchronized Disk.Request getIo( int handle ) {
+	return ( ioRequests == null ) ? null : ioRequests.get( handle );
+    }
+
+    // Forget a handle; the request behind it, or null
+    public synchronized Disk.Request removeIo( int handle ) {
+	return ( ioRequests == null ) ? null : ioRequests.remove( handle );
+    }
+
+    // Forget every handle, when the TCB is reaped. The disk still serves
+    // the requests, but nobody waits for them.
+    public synchronized void clearIo( ) {
+	ioRequests = null;
+    }
+
     // added for the file system
     public synchronized int getFd( FileTableEntry entry ) {
 	if ( entry == null )
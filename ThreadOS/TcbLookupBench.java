@@ -0,0 +1,38 @@
+import java.io.*;
+
+/**
+ * Measures the cost of Scheduler.getMyTcb( ) with many live TCBs. The
+ * calling thread is registered last so that a linear scan has to walk
+ * past every other TCB before it finds it.
+ *
+ * To run: java TcbLookupBench [tcbs] [lookups]
+ */
+public class TcbLookupBench {
+
+    public static void main( String args[] ) {
+	int tcbs = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : 10000;
+	int lookups = ( args.length > 1 ) ? Integer.parseInt( args[1] ) : 100000;
+
+	Scheduler scheduler = new Scheduler( ); // never started: no dispatching
+	PrintStream err = System.err;
+	System.setErr( new PrintStream( new OutputStream( ) {
+		public void write( int b ) { }
+	    } ) ); // silence the per-TCB creation messages
+	for ( int i = 0; i < tcbs - 1; i++ )
+	    scheduler.addThread( new Thread( ) );
+	scheduler.addThread( Thread.currentThread( ) );
+	System.setErr( err );
+
+	for ( int i = 0; i < lookups; i++ ) // warm up
+	    scheduler.getMyTcb( );
+	long start = System.nanoTime( );
+	for ( int i = 0; i < lookups; i++ )
+	    if ( scheduler.getMyTcb( ) == null )
+		throw new IllegalStateException( "TCB lost" );
+	long elapsed = System.nanoTime( ) - start;
+
+	System.out.println( String.format( "%d live TCBs: %d lookups in %d ms (%.1f ns/lookup)",
+					   tcbs, lookups, elapsed / 1000000,
+					   ( double )elapsed / lookups ) );
+    }
+}
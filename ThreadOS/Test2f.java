@@ -0,0 +1,24 @@
+import java.util.Date;
+
+// Starvation check: one long job (d) competes with a continuous stream of
+// short jobs arriving every 400 ms for 30 seconds. Without aging or a
+// periodic boost, d can sit at the lowest level until the stream stops.
+class Test2f extends Thread {
+
+  public void run() {
+    long startTime = new Date().getTime();
+    SysLib.exec( SysLib.stringToArgs( "TestThread2d d 6000" ) );
+    int children = 1;
+    while ( new Date().getTime() - startTime < 30000 ) {
+      SysLib.exec( SysLib.stringToArgs( "TestThread2d s" + children + " 300" ) );
+      children++;
+      SysLib.sleep( 400 );
+    }
+    for (int i = 0; i < children; i++ )
+      SysLib.join();
+    long endTime = new Date().getTime();
+    long totalTime = endTime - startTime;
+    SysLib.cout( "Test2f finished; total time = " + totalTime + "\n" );
+    SysLib.exit();
+  }
+}
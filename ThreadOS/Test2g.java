@@ -0,0 +1,33 @@
+import java.util.Date;
+
+// Disk/CPU mix: Test4 with the cache disabled (every access is a disk
+// transfer) runs against two CPU-bound TestThread2e threads. A scheduler
+// that returns the CPU to Test4 as soon as each transfer completes keeps
+// the disk busy; one that lets the CPU hogs finish their slices leaves it
+// idle. Reports how long Test4 took and how idle the disk was meanwhile.
+class Test2g extends Thread {
+
+  public void run() {
+    long startDisk[] = new long[Disk.STATS];
+    long endDisk[] = new long[Disk.STATS];
+    SysLib.diskStats( startDisk );
+    long startTime = new Date().getTime();
+    int test4 = SysLib.exec( SysLib.stringToArgs( "Test4 disabled 1" ) );
+    SysLib.exec( SysLib.stringToArgs( "TestThread2e h1 15000" ) );
+    SysLib.exec( SysLib.stringToArgs( "TestThread2e h2 15000" ) );
+    for ( int i = 0; i < 3; i++ ) {
+      if ( SysLib.join() == test4 ) {
+        SysLib.diskStats( endDisk );
+        long test4Time = new Date().getTime() - startTime;
+        long busy = ( endDisk[Disk.STAT_BUSY] - startDisk[Disk.STAT_BUSY] ) / 1000000;
+        long idle = ( endDisk[Disk.STAT_IDLE] - startDisk[Disk.STAT_IDLE] ) / 1000000;
+        SysLib.cout( "Test2g: Test4 took " + test4Time + " ms; disk busy " +
+                     busy + " ms, idle " + idle + " ms (" +
+                     ( 100 * idle / Math.max( busy + idle, 1 ) ) + "% idle)\n" );
+      }
+    }
+    long totalTime = new Date().getTime() - startTime;
+    SysLib.cout( "Test2g finished; total time = " + totalTime + "\n" );
+    SysLib.exit();
+  }
+}
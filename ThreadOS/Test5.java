@@ -495,7 +495,7 @@ class Test5 extends Thread {
     SysLib.cout( "17: create uwb0-29 of 512*13......" );
     int fdes[] = new int[29];
     for ( int i = 0; i < 29; i++ ) {
-      Integer suffix = new Integer( i );
+      Integer suffix = Integer.valueOf( i );
       String file = "uwb" + suffix.toString( );
       fdes[i] = SysLib.open( file, "w+" );
       if ( fdes[i] == -1 ) {
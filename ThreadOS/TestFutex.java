@@ -0,0 +1,96 @@
+import java.util.concurrent.atomic.*;
+
+// Producer/consumer over a bounded buffer, synchronized only with
+// semaphores built on SysLib.futexWait( ) and SysLib.futexWake( ). Two
+// producers each put items 1..n into the buffer and two consumers take
+// them out; the consumers' sums must add up to twice 1 + ... + n.
+// Run as 'l TestFutex [n]'; the producers and consumers are further
+// instances of this class, sharing the buffer through static fields.
+public class TestFutex extends Thread {
+  private static final int SLOTS = 4;
+  private static int buffer[] = new int[SLOTS];
+  private static int in = 0, out = 0;
+  private static Semaphore empty, full, mutex;
+  private static AtomicLong consumed = new AtomicLong( );
+
+  // A counting semaphore on a futex word: down( ) sleeps in the kernel
+  // while the count is zero instead of polling it
+  private static class Semaphore {
+    private AtomicInteger count;
+
+    Semaphore( int value ) {
+      count = new AtomicInteger( value );
+    }
+
+    void down( ) {
+      while ( true ) {
+        int value = count.get( );
+        if ( value > 0 ) {
+          if ( count.compareAndSet( value, value - 1 ) )
+            return;
+        } else
+          SysLib.futexWait( count, value ); // returns at once if it changed
+      }
+    }
+
+    void up( ) {
+      count.incrementAndGet( );
+      SysLib.futexWake( count, 1 );
+    }
+  }
+
+  private String role;
+  private int items;
+
+  public TestFutex( ) {
+    role = "main";
+    items = 1000;
+  }
+
+  public TestFutex( String args[] ) {
+    role = ( args.length > 1 ) ? args[0] : "main";
+    items = Integer.parseInt( args[args.length - 1] );
+  }
+
+  public void run( ) {
+    if ( role.equals( "producer" ) ) {
+      for ( int i = 1; i <= items; i++ ) {
+        empty.down( );
+        mutex.down( );
+        buffer[in] = i;
+        in = ( in + 1 ) % SLOTS;
+        mutex.up( );
+        full.up( );
+      }
+    } else if ( role.equals( "consumer" ) ) {
+      long sum = 0;
+      for ( int i = 1; i <= items; i++ ) {
+        full.down( );
+        mutex.down( );
+        sum += buffer[out];
+        out = ( out + 1 ) % SLOTS;
+        mutex.up( );
+        empty.up( );
+      }
+      consumed.addAndGet( sum );
+    } else {
+      empty = new Semaphore( SLOTS );
+      full = new Semaphore( 0 );
+      mutex = new Semaphore( 1 );
+      consumed.set( 0 );
+      long start = System.currentTimeMillis( );
+      SysLib.exec( SysLib.stringToArgs( "TestFutex producer " + items ) );
+      SysLib.exec( SysLib.stringToArgs( "TestFutex producer " + items ) );
+      SysLib.exec( SysLib.stringToArgs( "TestFutex consumer " + items ) );
+      SysLib.exec( SysLib.stringToArgs( "TestFutex consumer " + items ) );
+      for ( int i = 0; i < 4; i++ )
+        SysLib.join( );
+      long expected = ( long )items * ( items + 1 );
+      SysLib.cout( "TestFutex: " + 2 * items + " items in " +
+                   ( System.currentTimeMillis( ) - start ) + " ms, sum " +
+                   consumed.get( ) + ( consumed.get( ) == expected ?
+                                       " (correct)\n" : " (expected " + expected + ")\n" ) );
+    }
+    SysLib.exit( );
+  }
+}
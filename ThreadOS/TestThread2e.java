@@ -0,0 +1,36 @@
+import java.util.Date;
+
+// A CPU-bound thread: it computes until the kernel has given it cpuBurst
+// ms of CPU time. Unlike TestThread2d it never sleeps, and it asks the
+// kernel for its statistics every few thousand iterations, which also
+// lets the scheduler preempt it at that syscall.
+class TestThread2e extends Thread {
+  private String name;
+  private int cpuBurst;
+  private long submissionTime;
+
+  public TestThread2e ( String args[] ) {
+    name = args[0];
+    cpuBurst = Integer.parseInt( args[1] );
+    submissionTime = new Date().getTime();
+  }
+
+  public void run( ) {
+    long stats[] = new long[TCB.STATS];
+    long burst = cpuBurst * 1000000L;
+    double x = 0.0;
+    do {
+      for ( int i = 0; i < 5000; i++ )
+        x += Math.sqrt( i + x );
+      SysLib.stats( -1, stats );
+    } while ( stats[TCB.STAT_RUN] < burst );
+    long completionTime = new Date().getTime();
+    SysLib.cout(
+      String.format(
+        "%05d: Thread[%s]: execution: %5d; wait: %5d; turnaround: %5d\n",
+        completionTime % 100000, name,
+        stats[TCB.STAT_RUN] / 1000000, stats[TCB.STAT_READY] / 1000000,
+        completionTime - submissionTime ) );
+    SysLib.exit();
+  }
+}
@@ -0,0 +1,71 @@
+import java.util.*;
+
+// A hashed timer wheel for sleeping TCBs. Time is cut into ticks of
+// tickLength ms, and a TCB due at tick t waits in slot t % slots. Adding
+// a timer is O(1), and each tick only visits the one slot it hashes to,
+// so the cost per tick does not grow with the number of sleepers spread
+// over the wheel. TCBs due more than one revolution ahead stay in their
+// slot until their tick comes round.
+// Not synchronized: the Scheduler calls it with its lock held.
+public class TimerWheel {
+    private ArrayList<TCB>[] wheel;
+    private int tickLength;
+    private long currentTick = 0; // the last tick processed
+    private int count = 0;        // TCBs on the wheel
+
+    @SuppressWarnings( { "unchecked", "rawtypes" } )
+    public TimerWheel( int slots, int tickLength ) {
+	this.tickLength = tickLength;
+	wheel = new ArrayList[slots];
+	for ( int i = 0; i < slots; i++ )
+	    wheel[i] = new ArrayList<TCB>( );
+    }
+
+    // Wake tcb at the first tick at or after wakeTime (ms), and never
+    // sooner than the next tick
+    public void add( TCB tcb, long wakeTime ) {
+	if ( count == 0 )
+	    currentTick = System.currentTimeMillis( ) / tickLength;
+	long tick = Math.max( ( wakeTime + tickLength - 1 ) / tickLength,
+			      currentTick + 1 );
+	tcb.setWakeTick( tick );
+	wheel[( int )( tick % wheel.length )].add( tcb );
+	count++;
+    }
+
+    // Process every tick up to time now (ms), moving the TCBs that are
+    // due into expired
+    public void advance( long now, ArrayList<TCB> expired ) {
+	long target = now / tickLength;
+	while ( currentTick < target && count > 0 ) {
+	    currentTick++;
+	    ArrayList<TCB> slot = wheel[( int )( currentTick % wheel.length )];
+	    int kept = 0;
+	    for ( int i = 0; i < slot.size( ); i++ ) {
+		TCB tcb = slot.get( i );
+		if ( tcb.getWakeTick( ) <= currentTick ) {
+		    expired.add( tcb );
+		    count--;
+		} else
+		    slot.set( kept++, tcb ); // due in a later revolution
+	    }
+	    while ( slot.size( ) > kept )
+		slot.remove( slot.size( ) - 1 );
+	}
+	if ( count == 0 )
+	    currentTick = target;
+    }
+
+    // When the next tick is due, in ms
+    public long nextTick( ) {
+	return ( currentTick + 1 ) * tickLength;
+    }
+
+    public boolean isEmpty( ) {
+	return count == 0;
+    }
+
+    public int size( ) {
+	return count;
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.*;
+
+/**
+ * Measures what vectored raw I/O saves over one block per call. It reads
+ * a run of contiguous blocks, then the same number of random blocks,
+ * first with one rawread( ) per block and then with a single rawreadv( ),
+ * and reports the time and the blocks per second of each. A contiguous
+ * run read with rawreadv( ) pays one seek for the whole run instead of
+ * one per block, and a single kernel round trip; every block still pays
+ * its transfer time.
+ *
+ * To run: java VectorBench [blocks]
+ */
+public class VectorBench extends Thread {
+
+    private static int count;
+
+    public VectorBench( ) {
+    }
+
+    // Read blocks one at a time, then all at once, and report both
+    private void measure( String name, int blocks[] ) {
+	byte data[][] = new byte[blocks.length][Disk.blockSize];
+
+	long start = System.nanoTime( );
+	for ( int i = 0; i < blocks.length; i++ )
+	    SysLib.rawread( blocks[i], data[i] );
+	report( name + ", rawread", System.nanoTime( ) - start );
+
+	start = System.nanoTime( );
+	SysLib.rawreadv( blocks, data );
+	report( name + ", rawreadv", System.nanoTime( ) - start );
+    }
+
+    private void report( String name, long elapsed ) {
+	SysLib.cout( String.format( "%-22s %4d blocks in %6d ms: %7.1f blocks/s\n",
+				    name, count, elapsed / 1000000,
+				    count * 1e9 / elapsed ) );
+    }
+
+    public void run( ) {
+	int run[] = new int[count];
+	for ( int i = 0; i < count; i++ )
+	    run[i] = 100 + i;
+	measure( "contiguous", run );
+
+	Random rand = new Random( 1 );
+	int size = Kernel.diskBlocks( );
+	int scatter[] = new int[count];
+	for ( int i = 0; i < count; i++ )
+	    scatter[i] = rand.nextInt( size );
+	measure( "scattered", scatter );
+	System.exit( 0 );
+    }
+
+    public static void main( String args[] ) throws Exception {
+	count = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : 50;
+	SysLib.boot( );
+	SysLib.exec( new String[] { "VectorBench" } );
+	Thread.currentThread( ).join( ); // VectorBench.run( ) exits
+    }
+}